@@ -1,8 +1,13 @@
 package org.example.simpledb.buffer;
 
+import java.nio.ByteBuffer;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicInteger;
 import org.example.simpledb.log.LogMgr;
 import org.example.simpledb.file.BlockId;
 import org.example.simpledb.file.FileMgr;
+import org.example.simpledb.file.FileType;
 import org.example.simpledb.file.Page;
 
 /**
@@ -19,15 +24,44 @@ public class Buffer {
    private LogMgr lm;
    private Page contents;
    private BlockId blk = null;
-   private int pins = 0;
+   private AtomicInteger pins = new AtomicInteger();
    private int txnum = -1;
    private int lsn = -1;
+   private int recLSN = -1;
+   private DirtyPageTable dirty;
+   private ByteBuffer frame = null;
+   private VictimCache cache = null;
+   private volatile CompletableFuture<Void> pendingRead = null;
 
    public Buffer(FileMgr fm, LogMgr lm) {
       this.fm = fm;
       this.lm = lm;
+      dirty = new DirtyPageTable();
       contents = new Page(fm.blockSize());
    }
+
+   /**
+    * Creates a buffer of a pool, whose page is a frame
+    * of the pool's arena, and which reports its changes
+    * to the pool's dirty page table.
+    * The pages it gives up go to the victim cache, if there is one.
+    */
+   Buffer(FileMgr fm, LogMgr lm, DirtyPageTable dirty, ByteBuffer frame, VictimCache cache) {
+      this.fm = fm;
+      this.lm = lm;
+      this.dirty = dirty;
+      this.frame = frame;
+      this.cache = cache;
+      contents = new Page(frame);
+   }
+
+   /**
+    * Returns the arena frame that holds the buffer's page,
+    * so that it can be reused when the buffer is retired.
+    */
+   ByteBuffer frame() {
+      return frame;
+   }
    
    public Page contents() {
       return contents;
@@ -42,10 +76,24 @@ public class Buffer {
       return blk;
    }
 
+   /**
+    * Records that the specified transaction has modified the buffer.
+    * The dirty page table is told only when the buffer
+    * becomes dirty, changes transaction, or gets
+    * its first logged change.
+    * @param txnum the id of the modifying transaction
+    * @param lsn the LSN of the change's log record, or -1 if it was not logged
+    */
    public void setModified(int txnum, int lsn) {
+      int oldtx = this.txnum;
       this.txnum = txnum;
       if (lsn >= 0)
          this.lsn = lsn;
+      boolean firstlsn = (lsn >= 0 && recLSN < 0);
+      if (firstlsn)
+         recLSN = lsn;
+      if (oldtx != txnum || firstlsn)
+         dirty.modified(this, oldtx, txnum, recLSN);
    }
 
    /**
@@ -54,13 +102,21 @@ public class Buffer {
     * @return true if the buffer is pinned
     */
    public boolean isPinned() {
-      return pins > 0;
+      return pins.get() > 0;
    }
    
    public int modifyingTx() {
       return txnum;
    }
 
+   /**
+    * Returns true if the buffer's contents differ
+    * from its disk block.
+    */
+   boolean isModified() {
+      return txnum >= 0;
+   }
+
    /**
     * Reads the contents of the specified block into
     * the contents of the buffer.
@@ -69,10 +125,90 @@ public class Buffer {
     * @param b a reference to the data block
     */
    void assignToBlock(BlockId b) {
+      reassign(b);
+      if (!fillFromCache())
+         fm.read(blk, contents);
+   }
+
+   /**
+    * Fills the buffer with its block's page from the
+    * victim cache, if the page is there.
+    * @return true if the page was cached
+    */
+   boolean fillFromCache() {
+      return cache != null && cache.load(blk, frame);
+   }
+
+   /**
+    * Assigns the buffer to the specified block
+    * without reading the block.
+    * The caller is responsible for filling the contents,
+    * as when several buffers are read at once.
+    * If the buffer was dirty, then its previous contents
+    * are first written to disk; the previous page is then
+    * kept in the victim cache.
+    * @param b a reference to the data block, or null
+    */
+   void reassign(BlockId b) {
+      awaitRead();
       flush();
+      if (cache != null && blk != null && FileType.of(blk.fileName()) != FileType.TEMP)
+         cache.put(blk, frame);
       blk = b;
-      fm.read(blk, contents);
-      pins = 0;
+      pins.set(0);
+   }
+
+   /**
+    * Detaches the buffer from its block without writing it,
+    * because the block's file has been deleted.
+    */
+   void discard() {
+      awaitRead();
+      if (txnum >= 0)
+         dirty.cleaned(this, txnum);
+      blk = null;
+      txnum = -1;
+      recLSN = -1;
+      pins.set(0);
+   }
+
+   /**
+    * Records that the buffer's contents are being
+    * read in the background.
+    * @param read the future of the background read
+    */
+   void setPendingRead(CompletableFuture<Void> read) {
+      pendingRead = read;
+   }
+
+   /**
+    * Returns true if the buffer was filled by a background read
+    * that no pin has waited for yet,
+    * that is, if it holds a block that was hinted but not yet used.
+    */
+   boolean hasPendingRead() {
+      return pendingRead != null;
+   }
+
+   /**
+    * Waits until a background read of the buffer's block
+    * has finished. If the background read failed,
+    * the block is read again by the calling thread.
+    */
+   void awaitRead() {
+      if (pendingRead == null)
+         return;
+      synchronized (this) {
+         if (pendingRead == null)
+            return;
+         try {
+            pendingRead.join();
+         }
+         catch (CompletionException e) {
+            fm.read(blk, contents);
+         }
+         pendingRead = null;
+      }
    }
    
    /**
@@ -82,21 +218,27 @@ public class Buffer {
       if (txnum >= 0) {
          lm.flush(lsn);
          fm.write(blk, contents);
+         dirty.cleaned(this, txnum);
          txnum = -1;
+         recLSN = -1;
       }
    }
 
    /**
     * Increase the buffer's pin count.
+    * The count is atomic, so that a buffer can be unpinned
+    * without locking its partition of the buffer pool.
+    * @return the new pin count
     */
-   void pin() {
-      pins++;
+   int pin() {
+      return pins.incrementAndGet();
    }
 
    /**
     * Decrease the buffer's pin count.
+    * @return the new pin count
     */
-   void unpin() {
-      pins--;
+   int unpin() {
+      return pins.decrementAndGet();
    }
 }
\ No newline at end of file
@@ -0,0 +1,158 @@
+package org.example.simpledb.buffer;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.*;
+
+/**
+ * The memory of the buffer pool.
+ * Instead of one small direct allocation per buffer,
+ * the arena allocates a few large off-heap segments and slices
+ * them into frames of one block each, so a large pool has
+ * a predictable native footprint and starts quickly.
+ * A segment holds at most {@link #SEGMENT_SIZE} bytes,
+ * since a Java buffer is indexed by an int.
+ * <p>
+ * If the arena is given a hugetlbfs mount
+ * (such as /dev/hugepages on Linux), the segments are mapped
+ * from files in it, so that the pool is backed by huge pages
+ * and needs far fewer TLB entries; the files are deleted once
+ * mapped. If the directory does not exist, or the OS has no
+ * huge pages to give, ordinary direct memory is used.
+ * Huge pages are a system-wide reservation, so they are
+ * used only when asked for (see {@link org.example.simpledb.server.SimpleDB#HUGE_PAGE_DIR SimpleDB.HUGE_PAGE_DIR}).
+ * <p>
+ * Frames that the pool gives back are kept for reuse,
+ * since the memory of a segment is released only
+ * when the whole segment is unreachable.
+ */
+public class BufferArena {
+   public static int SEGMENT_SIZE = 1 << 30; // 1GB
+   private static final int HUGE_PAGE_SIZE = 2 << 20; // 2MB
+   private static final int ALIGNMENT = 4096;
+   private int blocksize;
+   private String hugepagedir;
+   private List<ByteBuffer> segments = new ArrayList<>();
+   private Deque<ByteBuffer> spare = new ArrayDeque<>();
+   private long bytes = 0;
+   private boolean hugepages = false;
+
+   /**
+    * Creates an empty arena for frames of the specified size,
+    * in ordinary direct memory.
+    * @param blocksize the size of a frame
+    */
+   public BufferArena(int blocksize) {
+      this(blocksize, null);
+   }
+
+   /**
+    * Creates an empty arena for frames of the specified size,
+    * whose segments are mapped from huge pages
+    * of the specified hugetlbfs mount when possible.
+    * @param blocksize the size of a frame
+    * @param hugepagedir the mount, or null for ordinary direct memory
+    */
+   public BufferArena(int blocksize, String hugepagedir) {
+      this.blocksize = blocksize;
+      this.hugepagedir = hugepagedir;
+   }
+
+   /**
+    * Returns the specified number of frames,
+    * reusing released frames first and allocating
+    * new segments for the rest.
+    * @param count the number of frames
+    * @return the frames
+    */
+   synchronized List<ByteBuffer> allocate(int count) {
+      List<ByteBuffer> frames = new ArrayList<>(count);
+      while (frames.size() < count && !spare.isEmpty())
+         frames.add(spare.poll());
+      int perSegment = Math.max(1, SEGMENT_SIZE / blocksize);
+      while (frames.size() < count) {
+         int n = Math.min(perSegment, count - frames.size());
+         ByteBuffer segment = newSegment(n * blocksize);
+         segments.add(segment);
+         bytes += segment.capacity();
+         for (int i=0; i<n; i++)
+            frames.add(segment.slice(i * blocksize, blocksize));
+      }
+      return frames;
+   }
+
+   /**
+    * Gives a frame back to the arena for reuse.
+    * @param frame a frame returned by {@link #allocate}
+    */
+   synchronized void release(ByteBuffer frame) {
+      spare.add(frame);
+   }
+
+   /**
+    * Returns the number of bytes the arena has allocated.
+    * @return the size of the arena's segments
+    */
+   public synchronized long bytesAllocated() {
+      return bytes;
+   }
+
+   /**
+    * Returns the number of frames that are not in use.
+    * @return the number of released frames
+    */
+   public synchronized int spareFrames() {
+      return spare.size();
+   }
+
+   /**
+    * Returns true if the arena's segments are backed by huge pages.
+    * @return true if huge pages are used
+    */
+   public synchronized boolean usesHugePages() {
+      return hugepages;
+   }
+
+   /**
+    * Allocates a segment, mapped from the huge page
+    * file system if possible, aligned to the OS page size otherwise.
+    */
+   private ByteBuffer newSegment(int size) {
+      ByteBuffer segment = mapHugePages(size);
+      if (segment != null) {
+         hugepages = true;
+         return segment;
+      }
+      // the aligned slice's limit is rounded down, so allocate a whole extra page
+      int padded = (size + ALIGNMENT - 1) / ALIGNMENT * ALIGNMENT + ALIGNMENT;
+      return ByteBuffer.allocateDirect(padded).alignedSlice(ALIGNMENT).slice(0, size);
+   }
+
+   private ByteBuffer mapHugePages(int size) {
+      File dir = (hugepagedir == null) ? null : new File(hugepagedir);
+      if (dir == null || !dir.isDirectory() || !dir.canWrite())
+         return null;
+      long mapsize = (size + HUGE_PAGE_SIZE - 1L) / HUGE_PAGE_SIZE * HUGE_PAGE_SIZE;
+      if (mapsize > Integer.MAX_VALUE)
+         return null;
+      File f = null;
+      try {
+         f = File.createTempFile("simpledb", ".arena", dir);
+         try (RandomAccessFile raf = new RandomAccessFile(f, "rw")) {
+            raf.setLength(mapsize);
+            // the mapping outlives the channel and the file
+            return raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, mapsize).slice(0, size);
+         }
+      }
+      catch (IOException | RuntimeException e) {
+         return null;
+      }
+      finally {
+         if (f != null)
+            f.delete();
+      }
+   }
+}
@@ -1,130 +1,1315 @@
 package org.example.simpledb.buffer;
 
+import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Predicate;
+import javax.management.*;
 import org.example.simpledb.log.LogMgr;
 import org.example.simpledb.file.BlockId;
 import org.example.simpledb.file.FileMgr;
+import org.example.simpledb.file.FileType;
+import org.example.simpledb.file.LatencyHistogram;
+import org.example.simpledb.file.Page;
+import org.example.simpledb.file.PrefetchScheduler;
 
 /**
  * Manages the pinning and unpinning of buffers to blocks.
+ * <p>
+ * The pool is divided into partitions (see {@link BufferPartition}),
+ * each with its own lock, page table, free list and
+ * {@link ReplacementPolicy}.
+ * A block is buffered in the partition that its id hashes to;
+ * groups of {@link #PARTITION_GROUP} consecutive blocks hash
+ * to the same partition, so that they can be read ahead together.
+ * Threads pinning blocks of different partitions do not wait
+ * on each other, and finding a block's buffer takes constant time
+ * however large the pool is.
+ * When a partition has no buffer to replace,
+ * it takes an unpinned buffer from another partition.
+ * <p>
+ * Pin counts are atomic, so unpinning a buffer that stays
+ * pinned by another transaction needs no lock.
+ * A thread that finds every buffer pinned waits until
+ * a buffer is unpinned; each unpin wakes a single waiter.
+ * <p>
+ * An operator that needs several buffers at once can reserve
+ * them (see {@link BufferReservation}); reservations are granted
+ * in the order they are requested.
+ * <p>
+ * A bulk access, such as a scan of a large table, can pin its
+ * blocks through a {@link BufferRing}, so that it replaces
+ * only the ring's buffers and not the rest of the pool.
+ * <p>
+ * The buffers' pages are frames of a single {@link BufferArena}.
+ * The pages of replaced blocks are kept compressed in a
+ * {@link VictimCache} of {@link #VICTIM_CACHE_SIZE} bytes,
+ * from which a later miss can be served without a disk read.
+ * <p>
+ * A {@link PageCleaner} thread writes dirty buffers
+ * before they are chosen for replacement.
+ * <p>
+ * Each checkpoint saves the list of buffered blocks,
+ * so that after a restart a {@link WarmUp} can read them
+ * back in before they are asked for.
  * @author Edward Sciore
  *
  */
-public class BufferMgr {
-   private Buffer[] bufferpool;
-   private int numAvailable;
-   private static final long MAX_TIME = 10000; // 10 seconds
-   
+public class BufferMgr implements BufferPoolMXBean {
+   public static int MAX_PARTITIONS = 16;
+   public static int MIN_PARTITION_SIZE = 32; // buffers per partition
+   public static int PARTITION_GROUP = 8;     // consecutive blocks per partition
+   public static int RING_SIZE = 16;          // buffers of a bulk access
+   public static String RESIDENT_FILE = "simpledb.resident"; // the saved list of buffered blocks
+   public static long MAX_TIME = 10000;       // milliseconds to wait for a buffer
+   public static long VICTIM_CACHE_SIZE = 8 << 20; // bytes of compressed replaced pages, or 0 for none
+   private AtomicInteger numbuffs;
+   private AtomicInteger shrinkPending = new AtomicInteger();
+   private FileMgr fm;
+   private LogMgr lm;
+   private PrefetchScheduler prefetcher;
+   private BufferPartition[] partitions;
+   private AtomicInteger numAvailable;
+   private AtomicInteger waiters = new AtomicInteger();
+   private AtomicLong releases = new AtomicLong();
+   private AtomicLong dirtyVictims = new AtomicLong();
+   private LatencyHistogram pinWaits = new LatencyHistogram();
+   private LongAdder aborts = new LongAdder();
+   private DirtyPageTable dirty = new DirtyPageTable();
+   private BufferArena arena;
+   private VictimCache cache;
+   private PageCleaner cleaner = null;
+   private volatile WarmUp warmup = null;
+   private ReentrantLock waitLock = new ReentrantLock();
+   private Condition bufferFreed = waitLock.newCondition();
+   private ReentrantLock reserveLock = new ReentrantLock(true); // fair, so reservations queue in order
+   private volatile boolean reserving = false;
+
    /**
-    * Creates a buffer manager having the specified number 
+    * Creates a buffer manager having the specified number
     * of buffer slots.
     * This constructor depends on a {@link FileMgr} and
     * {@link simpledb.log.LogMgr LogMgr} object.
     * @param numbuffs the number of buffer slots to allocate
     */
    public BufferMgr(FileMgr fm, LogMgr lm, int numbuffs) {
-      bufferpool = new Buffer[numbuffs];
-      numAvailable = numbuffs;
+      this(fm, lm, numbuffs, new PrefetchScheduler(fm, 1), ReplacementStrategy.LRU);
+   }
+
+   /**
+    * Creates a buffer manager whose read-ahead requests
+    * are serviced by the specified scheduler,
+    * and whose partitions replace buffers with the specified policy.
+    * @param numbuffs the number of buffer slots to allocate
+    * @param prefetcher the scheduler for background reads
+    * @param strategy the replacement policy
+    */
+   public BufferMgr(FileMgr fm, LogMgr lm, int numbuffs, PrefetchScheduler prefetcher,
+                    ReplacementStrategy strategy) {
+      this(fm, lm, numbuffs, prefetcher, strategy, null);
+   }
+
+   /**
+    * Creates a buffer manager as above, whose buffers are
+    * backed by huge pages of the specified hugetlbfs mount
+    * if the OS has them to give (see {@link BufferArena}).
+    * @param numbuffs the number of buffer slots to allocate
+    * @param prefetcher the scheduler for background reads
+    * @param strategy the replacement policy
+    * @param hugepagedir the mount, or null for ordinary direct memory
+    */
+   public BufferMgr(FileMgr fm, LogMgr lm, int numbuffs, PrefetchScheduler prefetcher,
+                    ReplacementStrategy strategy, String hugepagedir) {
+      this.fm = fm;
+      this.lm = lm;
+      this.prefetcher = prefetcher;
+      this.numbuffs = new AtomicInteger(numbuffs);
+      int n = Math.max(1, Math.min(MAX_PARTITIONS, numbuffs / MIN_PARTITION_SIZE));
+      partitions = new BufferPartition[n];
+      for (int i=0; i<n; i++)
+         partitions[i] = new BufferPartition(strategy.newPolicy());
+      numAvailable = new AtomicInteger(numbuffs);
+      arena = new BufferArena(fm.blockSize(), hugepagedir);
+      cache = (VICTIM_CACHE_SIZE > 0) ? new VictimCache(VICTIM_CACHE_SIZE) : null;
+      List<ByteBuffer> frames = arena.allocate(numbuffs);
       for (int i=0; i<numbuffs; i++)
-         bufferpool[i] = new Buffer(fm, lm);
+         partitions[i % n].addBuffer(new Buffer(fm, lm, dirty, frames.get(i), cache));
+      if (PageCleaner.PAGES_PER_SECOND > 0)
+         cleaner = new PageCleaner(partitions, dirty);
+   }
+
+   /**
+    * Stops the page cleaner, if there is one.
+    * The buffers can still be used.
+    */
+   public void shutdown() {
+      if (cleaner != null)
+         cleaner.shutdown();
+   }
+
+   /**
+    * Returns the off-heap memory that holds the buffers' pages.
+    * @return the pool's arena
+    */
+   public BufferArena arena() {
+      return arena;
+   }
+
+   /**
+    * Returns the number of buffers in the pool.
+    * While the pool is shrinking, this includes the buffers
+    * that are still pinned and will be removed when unpinned.
+    * @return the size of the pool
+    */
+   public int size() {
+      return numbuffs.get();
+   }
+
+   /**
+    * Changes the number of buffers in the pool
+    * while the pool is in use.
+    * New buffers are available at once,
+    * and threads waiting for a buffer are woken.
+    * When the pool shrinks, unpinned buffers are removed
+    * (dirty ones are written first); if too few are unpinned,
+    * the rest are removed as they are unpinned,
+    * so no pinned buffer is taken from a transaction.
+    * The memory of removed buffers is kept by the arena
+    * for the next time the pool grows.
+    * @param newsize the new number of buffers
+    */
+   public synchronized void resize(int newsize) {
+      if (newsize < 1)
+         throw new IllegalArgumentException("buffer pool size must be positive");
+      int delta = newsize - (numbuffs.get() - shrinkPending.get());
+      if (delta > 0)
+         grow(delta);
+      else if (delta < 0)
+         shrink(-delta);
+   }
+
+   public int getSize() {
+      return size();
+   }
+
+   public void setSize(int size) {
+      resize(size);
+   }
+
+   public BufferStats getStats() {
+      return stats();
+   }
+
+   public double getHitRatio() {
+      return hitRatio();
+   }
+
+   public int getAvailable() {
+      return available();
+   }
+
+   /**
+    * Registers the buffer manager with the platform MBean server,
+    * so that the pool can be resized through JMX,
+    * replacing any buffer manager previously registered under the same name.
+    * @param name the name of the database
+    */
+   public void register(String name) {
+      try {
+         MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+         ObjectName objname = new ObjectName("org.example.simpledb:type=BufferPool,name="
+               + ObjectName.quote(name));
+         if (server.isRegistered(objname))
+            server.unregisterMBean(objname);
+         server.registerMBean(this, objname);
+      }
+      catch (JMException e) {
+         throw new RuntimeException("cannot register the buffer pool of " + name);
+      }
    }
-   
+
    /**
     * Returns the number of available (i.e. unpinned) buffers.
     * @return the number of available buffers
     */
-   public synchronized int available() {
-      return numAvailable;
+   public int available() {
+      return numAvailable.get();
    }
-   
+
+   /**
+    * Returns the number of pins that found their block
+    * already buffered.
+    * @return the number of hits
+    */
+   public long hits() {
+      long n = 0;
+      for (BufferPartition p : partitions)
+         n += p.policy().getHits();
+      return n;
+   }
+
+   /**
+    * Returns the number of pins that had to read their block.
+    * @return the number of misses
+    */
+   public long misses() {
+      long n = 0;
+      for (BufferPartition p : partitions)
+         n += p.policy().getMisses();
+      return n;
+   }
+
+   /**
+    * Returns the fraction of pins that found their block
+    * already buffered.
+    * @return the hit ratio, or 0 if nothing has been pinned
+    */
+   public double hitRatio() {
+      long hits = hits(), total = hits + misses();
+      return (total == 0) ? 0 : (double) hits / total;
+   }
+
+   /**
+    * Returns the number of pins that had to write
+    * a dirty buffer before reading their block.
+    * With the page cleaner running, this should be rare.
+    * @return the number of dirty replacements
+    */
+   public long dirtyReplacements() {
+      return dirtyVictims.get();
+   }
+
    /**
-    * Flushes the dirty buffers modified by the specified transaction.
+    * Returns the number of pages written by the page cleaner.
+    * @return the number of pages written in the background
+    */
+   public long pagesCleaned() {
+      return (cleaner == null) ? 0 : cleaner.pagesWritten();
+   }
+
+   /**
+    * Returns the number of cleaning rounds in which
+    * the page cleaner failed to write a page.
+    * @return the number of failed rounds
+    */
+   public long cleanerFailures() {
+      return (cleaner == null) ? 0 : cleaner.failures();
+   }
+
+   /**
+    * Returns the number of blocks removed from the pool
+    * to make room for other blocks.
+    * @return the number of evictions
+    */
+   public long evictions() {
+      long n = 0;
+      for (BufferPartition p : partitions) {
+         p.lock();
+         try {
+            n += p.evictions();
+         }
+         finally {
+            p.unlock();
+         }
+      }
+      return n;
+   }
+
+   /**
+    * Returns the number of pins that gave up waiting for a buffer.
+    * @return the number of {@link BufferAbortException}s thrown
+    */
+   public long aborts() {
+      return aborts.sum();
+   }
+
+   /**
+    * Returns a snapshot of the pool's statistics,
+    * including the number of buffered blocks of each file
+    * and the statistics of the victim cache.
+    * Each partition is locked in turn, so the snapshot is
+    * consistent within a partition but not across partitions.
+    * @return the statistics of the pool
+    */
+   public BufferStats stats() {
+      long hits = 0, misses = 0, evictions = 0, dirtyEvictions = 0;
+      Map<String,Integer> resident = new TreeMap<>();
+      for (BufferPartition p : partitions) {
+         p.lock();
+         try {
+            hits += p.policy().getHits();
+            misses += p.policy().getMisses();
+            evictions += p.evictions();
+            dirtyEvictions += p.dirtyEvictions();
+            p.countResident(resident);
+         }
+         finally {
+            p.unlock();
+         }
+      }
+      return new BufferStats(size(), available(), hits, misses, evictions, dirtyEvictions,
+                             pagesCleaned(), cleanerFailures(), pinWaits, aborts.sum(), resident, cache);
+   }
+
+   /**
+    * Flushes the dirty buffers modified by the specified transaction,
+    * and then forces the written files to disk.
+    * The transaction's buffers are found in the dirty page table,
+    * so the cost depends on the number of buffers the transaction
+    * has modified, not on the size of the pool.
+    * Because the transaction's buffers may also have been written
+    * earlier when they were replaced, every file written since
+    * the last force point is forced.
     * @param txnum the transaction's id number
     */
-   public synchronized void flushAll(int txnum) {
-      for (Buffer buff : bufferpool)
-         if (buff.modifyingTx() == txnum)
-         buff.flush();
+   public void flushAll(int txnum) {
+      flush(dirty.buffersOf(txnum), txnum);
+      fm.forceAll();
    }
-   
-   
+
+   /**
+    * Flushes every dirty buffer, and then forces
+    * the written files to disk, as a checkpoint requires.
+    */
+   public void flushAll() {
+      flush(dirty.buffers(), -1);
+      fm.forceAll();
+      saveResidentPages();
+   }
+
+   /**
+    * Saves the list of buffered blocks in the database directory,
+    * from the most to the least recently used, so that a later
+    * {@link #prepareWarmUp()} can read them back in.
+    * Blocks of temporary tables are left out.
+    * While a warm-up is in progress the previous list is kept,
+    * since the pool does not yet reflect the workload.
+    */
+   public void saveResidentPages() {
+      WarmUp w = warmup;
+      if (w != null && !w.isDone())
+         return;
+      List<List<BlockId>> lists = new ArrayList<>();
+      for (BufferPartition p : partitions) {
+         List<BlockId> blks = new ArrayList<>();
+         p.lock();
+         try {
+            for (Buffer buff : p.byHotness()) {
+               BlockId blk = buff.block();
+               if (blk != null && FileType.of(blk.fileName()) != FileType.TEMP)
+                  blks.add(blk);
+            }
+         }
+         finally {
+            p.unlock();
+         }
+         lists.add(blks);
+      }
+      // interleave the partitions, so that the hottest blocks of each come first
+      List<BlockId> resident = new ArrayList<>();
+      for (int i=0; resident.size() < size(); i++) {
+         boolean more = false;
+         for (List<BlockId> blks : lists)
+            if (i < blks.size()) {
+               resident.add(blks.get(i));
+               more = true;
+            }
+         if (!more)
+            break;
+      }
+      File f = new File(fm.directory(), RESIDENT_FILE);
+      File tmp = new File(fm.directory(), RESIDENT_FILE + ".new");
+      try {
+         try (DataOutputStream out = new DataOutputStream(
+               new BufferedOutputStream(new FileOutputStream(tmp)))) {
+            out.writeInt(resident.size());
+            for (BlockId blk : resident) {
+               out.writeUTF(blk.fileName());
+               out.writeInt(blk.number());
+            }
+         }
+         Files.move(tmp.toPath(), f.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+      }
+      catch (IOException e) {
+         // the list is only a hint; a missing list means a cold start
+         tmp.delete();
+      }
+   }
+
+   /**
+    * Reads the list saved by {@link #saveResidentPages()}
+    * and prepares a warm-up that will read its blocks,
+    * at most as many as the pool holds.
+    * The warm-up is started by the caller, after recovery.
+    * Until it is done, checkpoints keep the saved list.
+    * @return the warm-up, or null if no list was saved
+    */
+   public WarmUp prepareWarmUp() {
+      File f = new File(fm.directory(), RESIDENT_FILE);
+      if (!f.exists())
+         return null;
+      List<BlockId> blks = new ArrayList<>();
+      try (DataInputStream in = new DataInputStream(
+            new BufferedInputStream(new FileInputStream(f)))) {
+         int n = Math.min(in.readInt(), size());
+         for (int i=0; i<n; i++)
+            blks.add(new BlockId(in.readUTF(), in.readInt()));
+      }
+      catch (IOException e) {
+         // use the blocks read before the damage
+      }
+      WarmUp w = new WarmUp(this, fm, blks);
+      warmup = w;
+      return w;
+   }
+
+   /**
+    * Returns the warm-up prepared at startup, or null if there is none.
+    * @return the pool's warm-up
+    */
+   public WarmUp warmUp() {
+      return warmup;
+   }
+
+   /**
+    * Reads the blocks of the range that are not buffered
+    * into empty buffers, replacing no block.
+    * Used by {@link WarmUp}, which waits for the returned reads.
+    * @return the scheduled reads
+    */
+   List<CompletableFuture<Void>> warmRead(String filename, int blknum, int count) {
+      List<CompletableFuture<Void>> reads = new ArrayList<>();
+      readBlocks(filename, blknum, count, null, true, reads);
+      return reads;
+   }
+
+   /**
+    * Returns the number of empty buffers.
+    * @return the number of buffers that hold no block
+    */
+   int freeBuffers() {
+      int n = 0;
+      for (BufferPartition p : partitions) {
+         p.lock();
+         try {
+            n += p.freeCount();
+         }
+         finally {
+            p.unlock();
+         }
+      }
+      return n;
+   }
+
+   /**
+    * Returns the dirty blocks of the pool, each with its recovery LSN:
+    * the LSN of the oldest change that has not been written,
+    * or -1 if none of its changes were logged.
+    * @return the recovery LSN of each dirty block
+    */
+   public Map<BlockId,Integer> dirtyPages() {
+      return dirty.recLSNs();
+   }
+
+   /**
+    * Returns the oldest recovery LSN of the dirty blocks;
+    * the log records before it are not needed to redo
+    * the changes that are only in the buffer pool.
+    * @return the oldest recovery LSN, or -1 if there is none
+    */
+   public int oldestRecLSN() {
+      return dirty.minRecLSN();
+   }
+
+
    /**
     * Unpins the specified data buffer. If its pin count
-    * goes to zero, then notify any waiting threads.
+    * goes to zero, then a waiting thread is woken.
+    * The partition is locked only when the count goes to zero.
     * @param buff the buffer to be unpinned
     */
-   public synchronized void unpin(Buffer buff) {
-      buff.unpin();
-      if (!buff.isPinned()) {
-         numAvailable++;
-         notifyAll();
+   public void unpin(Buffer buff) {
+      BlockId blk = buff.block();
+      if (buff.unpin() > 0)
+         return;
+      numAvailable.incrementAndGet();
+      BufferPartition p = partition(blk);
+      p.lock();
+      try {
+         if (shrinkPending.get() > 0 && retire(p, buff, blk))
+            return;
+         p.unpinned(buff);
+      }
+      finally {
+         p.unlock();
+      }
+      releases.incrementAndGet();
+      if (waiters.get() > 0)
+         wakeWaiter();
+   }
+
+   /**
+    * Discards the unpinned buffers that hold blocks of the
+    * specified file, without writing them.
+    * This is done before a temporary table is deleted,
+    * so that its blocks are never written again.
+    * @param filename the name of the file
+    */
+   public void discard(String filename) {
+      for (BufferPartition p : partitions) {
+         p.lock();
+         try {
+            p.discard(filename);
+         }
+         finally {
+            p.unlock();
+         }
+      }
+   }
+
+   /**
+    * Hints that a range of blocks will be pinned soon.
+    * Unpinned buffers are assigned to the blocks right away,
+    * and the blocks are read into them in the background
+    * by the prefetch scheduler; a later pin of one of
+    * these blocks waits for its read to finish.
+    * Blocks that are already buffered are skipped,
+    * and each run of consecutive missing blocks of a partition
+    * is read with a single call to {@link FileMgr#read(BlockId, Page[])}.
+    * The read is scheduled before the partition is unlocked,
+    * so a pin never sees a buffer whose read is not yet scheduled.
+    * The buffers are left unpinned.
+    * The method reads fewer blocks if the file is shorter
+    * or if there are not enough unpinned buffers.
+    * @param filename the name of the file
+    * @param blknum the first block of the range
+    * @param count the number of blocks in the range
+    */
+   public void readAhead(String filename, int blknum, int count) {
+      readBlocks(filename, blknum, count, null, false, null);
+   }
+
+   /**
+    * Hints that a range of blocks will be pinned soon
+    * by a bulk access that uses the specified ring.
+    * The blocks that are not buffered are read into
+    * the ring's buffers, as in {@link #pin(BlockId, BufferRing)}.
+    * @param filename the name of the file
+    * @param blknum the first block of the range
+    * @param count the number of blocks in the range
+    * @param ring the ring of the access, or null to use the whole pool
+    */
+   public void readAhead(String filename, int blknum, int count, BufferRing ring) {
+      readBlocks(filename, blknum, count, ring, false, null);
+   }
+
+   /**
+    * Reads the blocks of the range that are not buffered
+    * into the buffers of the reservation, which keeps them
+    * pinned until they are pinned through it
+    * (see {@link #pin(BlockId, BufferReservation)}) or it is released.
+    * No other buffer of the pool is replaced.
+    * The method reads fewer blocks if the file is shorter
+    * or if the reservation runs out of buffers.
+    * @param filename the name of the file
+    * @param blknum the first block of the range
+    * @param count the number of blocks in the range
+    * @param r the reservation of the operator that will pin the blocks
+    */
+   public void readAhead(String filename, int blknum, int count, BufferReservation r) {
+      int end = Math.min(blknum + count, fm.length(filename));
+      List<Buffer> run = new ArrayList<>();
+      int n = blknum;
+      while (n < end) {
+         BufferPartition p = partition(new BlockId(filename, n));
+         p.lock();
+         try {
+            for (; n<end && partition(new BlockId(filename, n)) == p; n++) {
+               BlockId blk = new BlockId(filename, n);
+               Buffer buff = (p.lookup(blk) == null) ? r.take() : null;
+               if (buff == null) {
+                  readRun(run, null);
+                  continue;
+               }
+               p.adopt(buff);
+               p.assign(buff, blk, false);
+               buff.pin();
+               r.hold(blk, buff);
+               if (buff.fillFromCache())
+                  readRun(run, null); // the run of consecutive blocks ends here
+               else
+                  run.add(buff);
+            }
+            readRun(run, null);
+         }
+         finally {
+            p.unlock();
+         }
+      }
+   }
+
+   /**
+    * Reads the blocks of the range that are not buffered
+    * into unpinned buffers, without pinning them.
+    * @param ring the ring that supplies the buffers, or null
+    * @param freeOnly whether to use only empty buffers, and so replace no block
+    * @param reads receives the futures of the scheduled reads, if not null
+    */
+   private void readBlocks(String filename, int blknum, int count, BufferRing ring,
+                           boolean freeOnly, List<CompletableFuture<Void>> reads) {
+      int end = Math.min(blknum + count, fm.length(filename));
+      List<Buffer> run = new ArrayList<>();
+      Deque<Buffer> spares = new ArrayDeque<>();
+      int n = blknum;
+      while (n < end) {
+         BufferPartition p = partition(new BlockId(filename, n));
+         // buffers are taken back from the ring before the partition is locked
+         for (int i=n; i<end && partition(new BlockId(filename, i)) == p; i++) {
+            Buffer spare = (ring == null) ? null : reclaim(ring);
+            if (spare == null)
+               break;
+            spares.add(spare);
+         }
+         p.lock();
+         try {
+            for (; n<end && partition(new BlockId(filename, n)) == p; n++) {
+               BlockId blk = new BlockId(filename, n);
+               if (p.lookup(blk) != null) {
+                  readRun(run, reads);
+                  continue;
+               }
+               Buffer buff = spares.poll();
+               if (buff != null)
+                  p.adopt(buff);
+               else if (freeOnly)
+                  buff = p.chooseFree();
+               else
+                  buff = p.chooseBuffer(readAheadVictim(filename, blknum, end));
+               if (buff == null) {
+                  readRun(run, reads);
+                  if (freeOnly)
+                     continue;
+                  return;
+               }
+               p.assign(buff, blk, false);
+               if (ring != null)
+                  ring.add(buff);
+               if (buff.fillFromCache())
+                  readRun(run, reads); // the run of consecutive blocks ends here
+               else
+                  run.add(buff);
+            }
+            readRun(run, reads);
+            while (!spares.isEmpty())
+               p.addBuffer(spares.poll());
+         }
+         finally {
+            p.unlock();
+         }
       }
    }
-   
+
+   /**
+    * Returns a ring of buffers for a bulk access,
+    * such as a scan of a large table or a temporary table.
+    * The ring holds {@link #RING_SIZE} buffers,
+    * but no more than a quarter of the pool.
+    * A pool too small to spare a ring returns null,
+    * which the pin methods treat as an ordinary access.
+    * @return a new ring, or null
+    */
+   public BufferRing newRing() {
+      int n = Math.min(RING_SIZE, numbuffs.get() / 4);
+      return (n < 2) ? null : new BufferRing(n);
+   }
+
+   /**
+    * Pins a buffer to the specified block for a bulk access.
+    * If the block is buffered, its buffer is used as usual.
+    * Otherwise, once the ring is full, the block is read into
+    * the ring buffer that was filled longest ago,
+    * so that the access does not replace other blocks of the pool.
+    * @param blk a reference to a disk block
+    * @param ring the ring of the access, or null to use the whole pool
+    * @return the buffer pinned to that block
+    */
+   public Buffer pin(BlockId blk, BufferRing ring) {
+      if (ring == null)
+         return pin(blk);
+      BufferPartition p = partition(blk);
+      Buffer buff = null;
+      p.lock();
+      try {
+         if (p.lookup(blk) != null)
+            buff = pinInPartition(p, blk, null);
+      }
+      finally {
+         p.unlock();
+      }
+      if (buff == null) {
+         Buffer spare = reclaim(ring);
+         if (spare != null) {
+            p.lock();
+            try {
+               buff = pinInPartition(p, blk, spare);
+            }
+            finally {
+               p.unlock();
+            }
+            if (buff == spare)
+               ring.add(buff);
+         }
+         else {
+            buff = tryToPin(blk);
+            if (buff == null)
+               buff = waitToPin(blk);
+            ring.add(buff);
+         }
+      }
+      buff.awaitRead();
+      return buff;
+   }
+
    /**
     * Pins a buffer to the specified block, potentially
     * waiting until a buffer becomes available.
-    * If no buffer becomes available within a fixed 
+    * If no buffer becomes available within a fixed
     * time period, then a {@link BufferAbortException} is thrown.
+    * If the block is being read in the background,
+    * the method waits for the read to finish,
+    * after the partition has been unlocked.
     * @param blk a reference to a disk block
     * @return the buffer pinned to that block
     */
-   public synchronized Buffer pin(BlockId blk) {
-      try {
-         long timestamp = System.currentTimeMillis();
-         Buffer buff = tryToPin(blk);
-         while (buff == null && !waitingTooLong(timestamp)) {
-            wait(MAX_TIME);
-            buff = tryToPin(blk);
+   public Buffer pin(BlockId blk) {
+      Buffer buff = tryToPin(blk);
+      if (buff == null)
+         buff = waitToPin(blk);
+      buff.awaitRead();
+      return buff;
+   }
+
+   /**
+    * Pins a buffer to the specified block, using up one
+    * of the buffers of the reservation.
+    * If the reservation read the block ahead, its buffer is
+    * already pinned, and the pin is handed over to the caller.
+    * If the block is not buffered, it is read into the reserved
+    * buffer; otherwise the reserved buffer goes back to the pool.
+    * Once the reservation is used up, the block is pinned
+    * as by {@link #pin(BlockId)}.
+    * @param blk a reference to a disk block
+    * @param r the reservation of the pinning operator
+    * @return the buffer pinned to that block
+    */
+   public Buffer pin(BlockId blk, BufferReservation r) {
+      Buffer held = r.claim(blk);
+      if (held != null) {
+         BufferPartition p = partition(blk);
+         p.lock();
+         try {
+            p.pinned(held, false);
          }
-         if (buff == null)
+         finally {
+            p.unlock();
+         }
+         held.awaitRead();
+         return held;
+      }
+      Buffer spare = r.take();
+      if (spare == null)
+         return pin(blk);
+      numAvailable.incrementAndGet(); // the pin below takes it back
+      BufferPartition p = partition(blk);
+      Buffer buff;
+      p.lock();
+      try {
+         buff = pinInPartition(p, blk, spare);
+      }
+      finally {
+         p.unlock();
+      }
+      if (buff != spare) {
+         releases.incrementAndGet();
+         if (waiters.get() > 0)
+            wakeWaiter();
+      }
+      buff.awaitRead();
+      return buff;
+   }
+
+   /**
+    * Reserves the specified number of buffers,
+    * waiting up to the specified time for them.
+    * Reservations are granted one at a time, in the order
+    * they are requested: the oldest reservation takes
+    * the unpinned buffers as they become available
+    * until it has all it asked for, so that a large
+    * reservation is not starved by a stream of single pins.
+    * If the time runs out, the buffers collected so far
+    * go back to the pool and a {@link BufferAbortException}
+    * is thrown.
+    * @param n the number of buffers
+    * @param timeoutMillis the longest time to wait, in milliseconds
+    * @return the granted reservation
+    */
+   public BufferReservation reserve(int n, long timeoutMillis) {
+      if (n > size()) {
+         aborts.increment();
+         throw new BufferAbortException();
+      }
+      BufferReservation r = new BufferReservation(this, n);
+      long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+      try {
+         if (!reserveLock.tryLock(deadline - System.nanoTime(), TimeUnit.NANOSECONDS)) {
+            aborts.increment();
             throw new BufferAbortException();
-         return buff;
+         }
+         try {
+            while (true) {
+               long seen = releases.get();
+               collect(r);
+               if (r.isGranted())
+                  return r;
+               long remaining = deadline - System.nanoTime();
+               if (remaining <= 0) {
+                  release(r);
+                  aborts.increment();
+                  throw new BufferAbortException();
+               }
+               waiters.incrementAndGet();
+               waitLock.lock();
+               try {
+                  reserving = true;
+                  if (releases.get() == seen)
+                     bufferFreed.awaitNanos(remaining);
+               }
+               finally {
+                  reserving = false;
+                  waitLock.unlock();
+                  waiters.decrementAndGet();
+               }
+            }
+         }
+         finally {
+            reserveLock.unlock();
+         }
       }
       catch(InterruptedException e) {
+         release(r);
+         aborts.increment();
          throw new BufferAbortException();
       }
-   }  
-   
-   private boolean waitingTooLong(long starttime) {
-      return System.currentTimeMillis() - starttime > MAX_TIME;
    }
-   
+
    /**
-    * Tries to pin a buffer to the specified block. 
+    * Reserves the specified number of buffers if they are
+    * available now and no other reservation is waiting.
+    * @param n the number of buffers
+    * @return the granted reservation, or null
+    */
+   public BufferReservation tryReserve(int n) {
+      if (!reserveLock.tryLock())
+         return null;
+      try {
+         BufferReservation r = new BufferReservation(this, n);
+         if (numAvailable.get() >= n)
+            collect(r);
+         if (r.isGranted())
+            return r;
+         release(r);
+         return null;
+      }
+      finally {
+         reserveLock.unlock();
+      }
+   }
+
+   /**
+    * Gives the unused buffers of the reservation back to the pool,
+    * or to a pending shrink of the pool,
+    * and unpins the blocks it read ahead that were never pinned.
+    */
+   void release(BufferReservation r) {
+      for (Buffer held : r.releaseHeld())
+         unpin(held);
+      int returned = 0;
+      int next = (int) (releases.get() % partitions.length);
+      Buffer buff;
+      while ((buff = r.take()) != null) {
+         if (claimRemoval()) {
+            numbuffs.decrementAndGet();
+            arena.release(buff.frame());
+            continue;
+         }
+         BufferPartition p = partitions[next++ % partitions.length];
+         p.lock();
+         try {
+            p.addBuffer(buff);
+         }
+         finally {
+            p.unlock();
+         }
+         numAvailable.incrementAndGet();
+         returned++;
+      }
+      if (returned > 0) {
+         releases.incrementAndGet();
+         waitLock.lock();
+         try {
+            bufferFreed.signalAll();
+         }
+         finally {
+            waitLock.unlock();
+         }
+      }
+   }
+
+   /**
+    * Takes unpinned buffers out of the partitions
+    * until the reservation has all it asked for.
+    */
+   private void collect(BufferReservation r) {
+      for (BufferPartition p : partitions) {
+         if (r.isGranted())
+            return;
+         p.lock();
+         try {
+            while (!r.isGranted()) {
+               Buffer buff = p.removeBuffer(b -> true);
+               if (buff == null)
+                  break;
+               numAvailable.decrementAndGet();
+               r.add(buff);
+            }
+         }
+         finally {
+            p.unlock();
+         }
+      }
+   }
+
+   /**
+    * Waits until the block can be pinned.
+    * A thread that unpins a buffer wakes one waiter,
+    * and a waiter that succeeds passes the wakeup on
+    * if other waiters may also be able to proceed.
+    */
+   private Buffer waitToPin(BlockId blk) {
+      long start = System.nanoTime();
+      long deadline = start + TimeUnit.MILLISECONDS.toNanos(MAX_TIME);
+      waiters.incrementAndGet();
+      try {
+         while (true) {
+            long seen = releases.get();
+            Buffer buff = tryToPin(blk);
+            if (buff != null) {
+               if (waiters.get() > 1 && numAvailable.get() > 0)
+                  wakeWaiter();
+               return buff;
+            }
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+               aborts.increment();
+               throw new BufferAbortException();
+            }
+            waitLock.lock();
+            try {
+               if (releases.get() == seen)
+                  bufferFreed.awaitNanos(remaining);
+            }
+            finally {
+               waitLock.unlock();
+            }
+         }
+      }
+      catch(InterruptedException e) {
+         aborts.increment();
+         throw new BufferAbortException();
+      }
+      finally {
+         waiters.decrementAndGet();
+         pinWaits.record(System.nanoTime() - start);
+      }
+   }
+
+   private void wakeWaiter() {
+      waitLock.lock();
+      try {
+         // a waiting reservation must see every released buffer
+         if (reserving)
+            bufferFreed.signalAll();
+         else
+            bufferFreed.signal();
+      }
+      finally {
+         waitLock.unlock();
+      }
+   }
+
+   /**
+    * Tries to pin a buffer to the specified block.
     * If there is already a buffer assigned to that block
-    * then that buffer is used;  
-    * otherwise, an unpinned buffer from the pool is chosen.
+    * then that buffer is used;
+    * otherwise, an unpinned buffer of the block's partition is chosen,
+    * or failing that, one taken from another partition.
     * Returns a null value if there are no available buffers.
     * @param blk a reference to a disk block
     * @return the pinned buffer
     */
    private Buffer tryToPin(BlockId blk) {
-      Buffer buff = findExistingBuffer(blk);
-      if (buff == null) {
-         buff = chooseUnpinnedBuffer();
+      BufferPartition p = partition(blk);
+      p.lock();
+      try {
+         Buffer buff = pinInPartition(p, blk, null);
+         if (buff != null)
+            return buff;
+      }
+      finally {
+         p.unlock();
+      }
+      Buffer stolen = takeFromOtherPartition(p);
+      if (stolen == null)
+         return null;
+      p.lock();
+      try {
+         return pinInPartition(p, blk, stolen);
+      }
+      finally {
+         p.unlock();
+      }
+   }
+
+   /**
+    * Pins the block's buffer in its partition,
+    * assigning a buffer if necessary.
+    * The buffer assigned is the specified spare buffer,
+    * which has been taken from another partition or a ring,
+    * if there is one, and a buffer of the partition otherwise.
+    * An unused spare buffer joins the partition.
+    * Returns null if every buffer of the partition is pinned.
+    */
+   private Buffer pinInPartition(BufferPartition p, BlockId blk, Buffer spare) {
+      Buffer buff = p.lookup(blk);
+      boolean hit = (buff != null);
+      if (hit && spare != null)
+         p.addBuffer(spare);
+      if (!hit) {
+         if (spare != null)
+            p.adopt(spare);
+         buff = (spare != null) ? spare : p.chooseBuffer(b -> true);
          if (buff == null)
             return null;
-         buff.assignToBlock(blk);
+         if (buff.isModified()) {
+            dirtyVictims.incrementAndGet();
+            if (cleaner != null)
+               cleaner.wakeup();
+         }
+         p.assign(buff, blk, true);
       }
-      if (!buff.isPinned())
-         numAvailable--;
-      buff.pin();
+      if (buff.pin() == 1)
+         numAvailable.decrementAndGet();
+      p.pinned(buff, hit);
       return buff;
    }
-   
-   private Buffer findExistingBuffer(BlockId blk) {
-      for (Buffer buff : bufferpool) {
-         BlockId b = buff.block();
-         if (b != null && b.equals(blk))
-            return buff;
+
+   /**
+    * Removes an unpinned buffer from some other partition.
+    * Only one partition is locked at a time.
+    */
+   private Buffer takeFromOtherPartition(BufferPartition home) {
+      int start = Arrays.asList(partitions).indexOf(home);
+      for (int i=1; i<partitions.length; i++) {
+         BufferPartition p = partitions[(start + i) % partitions.length];
+         p.lock();
+         try {
+            Buffer buff = p.removeBuffer(b -> true);
+            if (buff != null)
+               return buff;
+         }
+         finally {
+            p.unlock();
+         }
       }
       return null;
    }
-   
-   private Buffer chooseUnpinnedBuffer() {
-      for (Buffer buff : bufferpool)
-         if (!buff.isPinned())
-         return buff;
-      return null;
+
+   /**
+    * Writes the specified buffers, if they are still modified
+    * by the specified transaction (or by any transaction, if it is -1).
+    * Each buffer is written while its partition is locked,
+    * and a buffer that moves meanwhile is looked up again.
+    */
+   private void flush(List<Buffer> buffs, int txnum) {
+      for (Buffer buff : buffs) {
+         while (true) {
+            BlockId blk = buff.block();
+            if (blk == null)
+               break;
+            BufferPartition p = partition(blk);
+            p.lock();
+            try {
+               if (blk.equals(buff.block()) && p.holds(buff)) {
+                  if (txnum < 0 || buff.modifyingTx() == txnum)
+                     buff.flush();
+                  break;
+               }
+            }
+            finally {
+               p.unlock();
+            }
+         }
+      }
+   }
+
+   private void grow(int count) {
+      // cancel pending removals first
+      int cancelled = 0;
+      while (cancelled < count && claimRemoval())
+         cancelled++;
+      int n = count - cancelled;
+      List<ByteBuffer> frames = arena.allocate(n);
+      for (int i=0; i<n; i++) {
+         BufferPartition p = partitions[i % partitions.length];
+         p.lock();
+         try {
+            p.addBuffer(new Buffer(fm, lm, dirty, frames.get(i), cache));
+         }
+         finally {
+            p.unlock();
+         }
+      }
+      numbuffs.addAndGet(n);
+      numAvailable.addAndGet(n);
+      releases.incrementAndGet();
+      waitLock.lock();
+      try {
+         bufferFreed.signalAll();
+      }
+      finally {
+         waitLock.unlock();
+      }
+   }
+
+   private void shrink(int count) {
+      shrinkPending.addAndGet(count);
+      for (BufferPartition p : partitions) {
+         p.lock();
+         try {
+            while (claimRemoval()) {
+               Buffer buff = p.removeBuffer(b -> true);
+               if (buff == null) {
+                  shrinkPending.incrementAndGet();
+                  break;
+               }
+               discardBuffer(buff);
+            }
+         }
+         finally {
+            p.unlock();
+         }
+      }
+   }
+
+   /**
+    * Removes a buffer that has just been unpinned,
+    * if the pool is waiting to shrink.
+    * Called with the partition locked.
+    */
+   private boolean retire(BufferPartition p, Buffer buff, BlockId blk) {
+      if (!claimRemoval())
+         return false;
+      if (!p.take(buff, blk)) {
+         shrinkPending.incrementAndGet();
+         return false;
+      }
+      discardBuffer(buff);
+      return true;
+   }
+
+   /**
+    * Claims one of the pending removals, if there are any.
+    */
+   private boolean claimRemoval() {
+      return shrinkPending.getAndUpdate(n -> (n > 0) ? n - 1 : n) > 0;
+   }
+
+   /**
+    * Forgets an unpinned buffer that has left its partition,
+    * and gives its frame back to the arena.
+    */
+   private void discardBuffer(Buffer buff) {
+      numbuffs.decrementAndGet();
+      numAvailable.decrementAndGet();
+      arena.release(buff.frame());
+   }
+
+   /**
+    * Takes back the oldest buffer of a full ring
+    * from the partition that holds it.
+    * Returns null if the ring is not yet full,
+    * or if the buffer has since been pinned or replaced
+    * by someone else; in that case it leaves the ring.
+    */
+   private Buffer reclaim(BufferRing ring) {
+      if (!ring.isFull())
+         return null;
+      BlockId blk = ring.oldestBlock();
+      Buffer buff = ring.removeOldest();
+      BufferPartition p = partition(blk);
+      p.lock();
+      try {
+         return p.take(buff, blk) ? buff : null;
+      }
+      finally {
+         p.unlock();
+      }
+   }
+
+   /**
+    * Returns the partition that buffers the specified block.
+    */
+   private BufferPartition partition(BlockId blk) {
+      int h = 31 * blk.fileName().hashCode() + blk.number() / PARTITION_GROUP;
+      h ^= (h >>> 16);
+      return partitions[(h & 0x7fffffff) % partitions.length];
+   }
+
+   /**
+    * Schedules a run of buffers that were assigned to
+    * consecutive blocks to be filled in the background.
+    */
+   private void readRun(List<Buffer> run, List<CompletableFuture<Void>> reads) {
+      if (run.isEmpty())
+         return;
+      Page[] pages = new Page[run.size()];
+      for (int i=0; i<pages.length; i++)
+         pages[i] = run.get(i).contents();
+      CompletableFuture<Void> read = prefetcher.schedule(run.get(0).block(), pages);
+      for (Buffer buff : run)
+         buff.setPendingRead(read);
+      if (reads != null)
+         reads.add(read);
+      run.clear();
+   }
+
+   /**
+    * The buffers that read-ahead may replace:
+    * those that do not hold a block of the range being read.
+    */
+   private Predicate<Buffer> readAheadVictim(String filename, int start, int end) {
+      return buff -> !buff.block().fileName().equals(filename)
+            || buff.block().number() < start || buff.block().number() >= end;
    }
 }
@@ -0,0 +1,270 @@
+package org.example.simpledb.buffer;
+
+import java.util.*;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Predicate;
+import org.example.simpledb.file.BlockId;
+
+/**
+ * A partition of the buffer pool.
+ * Each block is buffered only in the partition that its id hashes to.
+ * A partition has its own lock, page table, free list
+ * and replacement policy, so that threads pinning blocks
+ * of different partitions do not wait on each other.
+ * <p>
+ * Buffers can move between partitions: a partition that has
+ * no buffer to replace takes an unpinned one from another partition.
+ * The methods other than {@link #lock} and {@link #unlock}
+ * must be called while the partition is locked.
+ */
+class BufferPartition {
+   private ReentrantLock lock = new ReentrantLock();
+   private Map<BlockId,Buffer> pagetable = new HashMap<>();
+   private Deque<Buffer> free = new ArrayDeque<>(); // buffers holding no block
+   private Set<Buffer> buffers = new LinkedHashSet<>();
+   private ReplacementPolicy policy;
+   private long evictions = 0, dirtyEvictions = 0;
+
+   BufferPartition(ReplacementPolicy policy) {
+      this.policy = policy;
+   }
+
+   void lock() {
+      lock.lock();
+   }
+
+   void unlock() {
+      lock.unlock();
+   }
+
+   ReplacementPolicy policy() {
+      return policy;
+   }
+
+   Collection<Buffer> buffers() {
+      return buffers;
+   }
+
+   Buffer lookup(BlockId blk) {
+      return pagetable.get(blk);
+   }
+
+   boolean holds(Buffer buff) {
+      return buffers.contains(buff);
+   }
+
+   /**
+    * Adds a buffer that holds no block to the partition.
+    */
+   void addBuffer(Buffer buff) {
+      buffers.add(buff);
+      free.add(buff);
+      policy.add(buff);
+   }
+
+   /**
+    * Evicts an unpinned buffer chosen by the specified condition
+    * and removes it from the partition,
+    * so that it can be given to another partition.
+    * A dirty buffer is written before it leaves,
+    * while the partition is still locked,
+    * so that no thread can read its block's old contents from disk.
+    * @return the buffer, or null if none is eligible
+    */
+   Buffer removeBuffer(Predicate<Buffer> eligible) {
+      Buffer buff = chooseBuffer(eligible);
+      if (buff != null)
+         detach(buff);
+      return buff;
+   }
+
+   /**
+    * Removes the specified buffer from the partition,
+    * as {@link #removeBuffer} does, if it is unpinned
+    * and still holds the specified block.
+    * This is how a {@link BufferRing} takes back its buffers.
+    * @return true if the buffer was removed
+    */
+   boolean take(Buffer buff, BlockId blk) {
+      if (pagetable.get(blk) != buff || buff.isPinned())
+         return false;
+      detach(buff);
+      return true;
+   }
+
+   /**
+    * Adds a buffer taken from another partition,
+    * for immediate assignment to a block.
+    * Unlike {@link #addBuffer}, the buffer is not made free.
+    */
+   void adopt(Buffer buff) {
+      buffers.add(buff);
+      policy.add(buff);
+   }
+
+   /**
+    * Returns a free buffer, or null if there is none.
+    * The buffer stays in the partition.
+    */
+   Buffer chooseFree() {
+      return free.poll();
+   }
+
+   int freeCount() {
+      return free.size();
+   }
+
+   /**
+    * Returns the partition's buffers from the most to the least
+    * recently used, as far as its policy can tell:
+    * the pinned buffers first, and then the unpinned buffers
+    * in the reverse of their replacement order.
+    */
+   List<Buffer> byHotness() {
+      List<Buffer> result = new ArrayList<>();
+      for (Buffer buff : buffers)
+         if (buff.isPinned() && buff.block() != null)
+            result.add(buff);
+      List<Buffer> unpinned = policy.candidates(buffers.size());
+      Collections.reverse(unpinned);
+      result.addAll(unpinned);
+      return result;
+   }
+
+   /**
+    * Chooses a free buffer if there is one, and otherwise asks
+    * the policy for a victim, preferring one that does not
+    * hold a read-ahead block that is still waiting to be used.
+    * The buffer stays in the partition.
+    */
+   Buffer chooseBuffer(Predicate<Buffer> eligible) {
+      if (!free.isEmpty())
+         return free.poll();
+      Buffer buff = policy.chooseVictim(eligible.and(b -> !b.hasPendingRead()));
+      return (buff != null) ? buff : policy.chooseVictim(eligible);
+   }
+
+   /**
+    * Assigns a buffer of the partition to the block
+    * and records the change in the page table.
+    * @param read whether to read the block now
+    */
+   void assign(Buffer buff, BlockId blk, boolean read) {
+      replaced(buff);
+      evict(buff);
+      if (read)
+         buff.assignToBlock(blk);
+      else
+         buff.reassign(blk);
+      pagetable.put(blk, buff);
+      policy.loaded(buff);
+   }
+
+   /**
+    * Records a pin of one of the partition's buffers.
+    */
+   void pinned(Buffer buff, boolean hit) {
+      policy.pinned(buff, hit);
+   }
+
+   /**
+    * Records that a buffer's pin count dropped to zero,
+    * unless it has been pinned again or has left the partition.
+    */
+   void unpinned(Buffer buff) {
+      if (!buff.isPinned() && buffers.contains(buff))
+         policy.unpinned(buff);
+   }
+
+   /**
+    * Returns the dirty buffers among the next buffers to be replaced,
+    * so that the page cleaner can write them first.
+    * The cleaner tries to keep the specified percentage of the
+    * partition's buffers either empty or clean and next in line.
+    * @param percent the target percentage of clean buffers
+    * @return the buffers to write, in replacement order
+    */
+   List<Buffer> toClean(int percent) {
+      int window = (buffers.size() * percent + 99) / 100 - free.size();
+      List<Buffer> result = new ArrayList<>();
+      if (window > 0)
+         for (Buffer buff : policy.candidates(window))
+            if (buff.isModified())
+               result.add(buff);
+      return result;
+   }
+
+   /**
+    * Writes a buffer chosen by {@link #toClean}, unless it has
+    * since been pinned, written, or moved to another partition.
+    * @return true if the buffer was written
+    */
+   boolean clean(Buffer buff) {
+      if (!buffers.contains(buff) || buff.isPinned() || !buff.isModified())
+         return false;
+      buff.flush();
+      return true;
+   }
+
+   /**
+    * Discards the unpinned buffers that hold blocks of the file.
+    */
+   void discard(String filename) {
+      for (Buffer buff : buffers) {
+         BlockId b = buff.block();
+         if (b != null && b.fileName().equals(filename) && !buff.isPinned()) {
+            evict(buff);
+            buff.discard();
+            free.add(buff);
+         }
+      }
+   }
+
+   /**
+    * Returns the number of blocks that were replaced in,
+    * or taken with a buffer from, the partition.
+    */
+   long evictions() {
+      return evictions;
+   }
+
+   /**
+    * Returns the number of those replaced blocks
+    * that had to be written first.
+    */
+   long dirtyEvictions() {
+      return dirtyEvictions;
+   }
+
+   /**
+    * Adds the number of buffered blocks of each file to the map.
+    */
+   void countResident(Map<String,Integer> counts) {
+      for (BlockId blk : pagetable.keySet())
+         counts.merge(blk.fileName(), 1, Integer::sum);
+   }
+
+   private void detach(Buffer buff) {
+      replaced(buff);
+      evict(buff);
+      buff.reassign(null);
+      buffers.remove(buff);
+      policy.remove(buff);
+   }
+
+   private void replaced(Buffer buff) {
+      if (buff.block() != null) {
+         evictions++;
+         if (buff.isModified())
+            dirtyEvictions++;
+      }
+   }
+
+   private void evict(Buffer buff) {
+      BlockId old = buff.block();
+      if (old != null) {
+         policy.evicted(buff);
+         pagetable.remove(old);
+      }
+   }
+}
@@ -0,0 +1,51 @@
+package org.example.simpledb.buffer;
+
+import java.io.File;
+import java.util.Random;
+import org.example.simpledb.file.BlockId;
+import org.example.simpledb.file.FileMgr;
+import org.example.simpledb.log.LogMgr;
+
+/**
+ * Measures the latency of pin/unpin pairs as the buffer pool grows.
+ * For each pool size, every buffer is first filled with a block;
+ * the benchmark then times pins of resident blocks (hits),
+ * and pins of blocks that are not resident (misses),
+ * each of which replaces a buffer.
+ * With the page table and free lists, both latencies should
+ * stay roughly flat as the pool grows.
+ */
+public class BufferPinBenchmark {
+   private static final int BLOCK_SIZE = 400;
+   private static final int OPS = 200000;
+   private static final int[] POOL_SIZES = {8, 64, 512, 4096, 32768, 100000};
+
+   public static void main(String[] args) {
+      FileMgr fm = new FileMgr(new File("bufferbench"), BLOCK_SIZE, 1024);
+      LogMgr lm = new LogMgr(fm, "bufferbench.log");
+      String filename = "bench.tbl";
+      int maxblocks = 2 * POOL_SIZES[POOL_SIZES.length-1];
+      while (fm.length(filename) < maxblocks)
+         fm.append(filename);
+
+      for (int poolsize : POOL_SIZES) {
+         BufferMgr bm = new BufferMgr(fm, lm, poolsize);
+         for (int i=0; i<poolsize; i++)
+            bm.unpin(bm.pin(new BlockId(filename, i)));
+
+         Random rand = new Random(poolsize);
+         long start = System.nanoTime();
+         for (int i=0; i<OPS; i++)
+            bm.unpin(bm.pin(new BlockId(filename, rand.nextInt(poolsize))));
+         double hitnanos = (System.nanoTime() - start) / (double) OPS;
+
+         start = System.nanoTime();
+         for (int i=0; i<OPS; i++)
+            bm.unpin(bm.pin(new BlockId(filename, (poolsize + i) % maxblocks)));
+         double missnanos = (System.nanoTime() - start) / (double) OPS;
+
+         System.out.printf("buffers=%6d  hit=%8.0f ns  miss=%8.0f ns%n",
+               poolsize, hitnanos, missnanos);
+      }
+   }
+}
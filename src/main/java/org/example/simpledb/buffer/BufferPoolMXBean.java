@@ -0,0 +1,23 @@
+package org.example.simpledb.buffer;
+
+/**
+ * The management interface of {@link BufferMgr},
+ * through which an administrator can watch
+ * and resize the buffer pool of a running server.
+ */
+public interface BufferPoolMXBean {
+   /** Returns the number of buffers in the pool. */
+   int getSize();
+
+   /** Grows or shrinks the pool to the specified number of buffers. */
+   void setSize(int size);
+
+   /** Returns the number of unpinned buffers. */
+   int getAvailable();
+
+   /** Returns the fraction of pins that found their block buffered. */
+   double getHitRatio();
+
+   /** Returns the statistics of the pool, including the buffered blocks of each file. */
+   BufferStats getStats();
+}
@@ -0,0 +1,93 @@
+package org.example.simpledb.buffer;
+
+import java.util.*;
+import org.example.simpledb.file.BlockId;
+
+/**
+ * A number of buffers set aside for one operator,
+ * such as the chunk of a multibuffer product
+ * or the runs of a sort merge.
+ * The buffers are taken out of the pool when the reservation
+ * is granted, so other transactions cannot pin them,
+ * and each pin through the reservation uses up one of them:
+ * a block that is not buffered is read into it, and otherwise
+ * it goes back to the pool in place of the pinned buffer.
+ * The pinned buffers are unpinned as usual; the buffers that
+ * were not used go back to the pool when the reservation
+ * is released.
+ * <p>
+ * A read-ahead through the reservation (see
+ * {@link BufferMgr#readAhead(String, int, int, BufferReservation)})
+ * reads its blocks into the reserved buffers and keeps them pinned,
+ * so that they cannot be replaced; the pin of such a block
+ * then takes over the reservation's pin.
+ * A reservation belongs to a single transaction,
+ * and is not thread-safe.
+ * @see BufferMgr#reserve(int, long)
+ */
+public class BufferReservation implements AutoCloseable {
+   private BufferMgr bm;
+   private int requested;
+   private Deque<Buffer> buffers = new ArrayDeque<>();
+   private Map<BlockId,Buffer> held = new HashMap<>(); // blocks read ahead, not yet pinned
+
+   BufferReservation(BufferMgr bm, int requested) {
+      this.bm = bm;
+      this.requested = requested;
+   }
+
+   /**
+    * Returns the number of buffers that were requested.
+    * @return the size of the reservation
+    */
+   public int requested() {
+      return requested;
+   }
+
+   /**
+    * Returns the number of reserved buffers not yet used by a pin,
+    * including those that hold a block read ahead.
+    * @return the number of buffers left
+    */
+   public int remaining() {
+      return buffers.size() + held.size();
+   }
+
+   /**
+    * Gives the unused buffers back to the pool.
+    * Pins through the reservation then use the pool as usual.
+    */
+   public void release() {
+      bm.release(this);
+   }
+
+   public void close() {
+      release();
+   }
+
+   boolean isGranted() {
+      return buffers.size() >= requested;
+   }
+
+   void add(Buffer buff) {
+      buffers.add(buff);
+   }
+
+   Buffer take() {
+      return buffers.poll();
+   }
+
+   void hold(BlockId blk, Buffer buff) {
+      held.put(blk, buff);
+   }
+
+   Buffer claim(BlockId blk) {
+      return held.remove(blk);
+   }
+
+   Collection<Buffer> releaseHeld() {
+      List<Buffer> buffs = new ArrayList<>(held.values());
+      held.clear();
+      return buffs;
+   }
+}
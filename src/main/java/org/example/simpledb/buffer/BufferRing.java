@@ -0,0 +1,68 @@
+package org.example.simpledb.buffer;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import org.example.simpledb.file.BlockId;
+
+/**
+ * A small private set of buffers for a bulk access,
+ * such as a sequential scan of a large table
+ * or the reading and writing of a temporary table.
+ * A block that such an access does not find in the pool
+ * is read into one of the ring's buffers, replacing the block
+ * that the ring read longest ago, so the access cycles through
+ * its own few buffers instead of through the whole pool,
+ * and the blocks that other transactions use stay buffered.
+ * <p>
+ * The ring starts empty and takes buffers from the pool
+ * until it is full. A buffer that has since been pinned
+ * or replaced by someone else leaves the ring,
+ * and the ring takes another buffer from the pool.
+ * Blocks found in the pool are used in place.
+ * A ring belongs to a single scan, and is not thread-safe.
+ * @see BufferMgr#newRing()
+ */
+public class BufferRing {
+   private int capacity;
+   private Deque<Buffer> buffers = new ArrayDeque<>();
+   private Deque<BlockId> blocks = new ArrayDeque<>();
+
+   BufferRing(int capacity) {
+      this.capacity = capacity;
+   }
+
+   /**
+    * Returns the number of buffers the ring can hold.
+    * @return the capacity of the ring
+    */
+   public int capacity() {
+      return capacity;
+   }
+
+   boolean isFull() {
+      return buffers.size() >= capacity;
+   }
+
+   /**
+    * Removes the buffer that was filled longest ago.
+    * The caller must check that it still holds
+    * the block returned by {@link #oldestBlock()}.
+    */
+   Buffer removeOldest() {
+      blocks.poll();
+      return buffers.poll();
+   }
+
+   BlockId oldestBlock() {
+      return blocks.peek();
+   }
+
+   /**
+    * Records that a buffer has been assigned to
+    * a block for the ring.
+    */
+   void add(Buffer buff) {
+      buffers.add(buff);
+      blocks.add(buff.block());
+   }
+}
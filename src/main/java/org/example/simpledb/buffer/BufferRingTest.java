@@ -0,0 +1,49 @@
+package org.example.simpledb.buffer;
+
+import java.io.File;
+import java.util.Random;
+import org.example.simpledb.file.BlockId;
+import org.example.simpledb.file.FileMgr;
+import org.example.simpledb.file.PrefetchScheduler;
+import org.example.simpledb.log.LogMgr;
+
+/**
+ * Measures the hit ratio of a hot set of blocks
+ * (like the working set of short transactions)
+ * while a report scans a table much larger than the pool,
+ * first through the whole pool and then through a ring.
+ * With the ring, the hot blocks should stay buffered.
+ */
+public class BufferRingTest {
+   private static final int BUFFERS = 256;
+   private static final int HOT_BLOCKS = 128;
+   private static final int TABLE_BLOCKS = 4000;
+
+   public static void main(String[] args) {
+      FileMgr fm = new FileMgr(new File("ringtest"), 400, 64);
+      LogMgr lm = new LogMgr(fm, "ringtest.log");
+      while (fm.length("hot.tbl") < HOT_BLOCKS)
+         fm.append("hot.tbl");
+      while (fm.length("big.tbl") < TABLE_BLOCKS)
+         fm.append("big.tbl");
+
+      for (boolean bulk : new boolean[] {false, true}) {
+         BufferMgr bm = new BufferMgr(fm, lm, BUFFERS, new PrefetchScheduler(fm, 1), ReplacementStrategy.LRU);
+         for (int i=0; i<HOT_BLOCKS; i++)
+            bm.unpin(bm.pin(new BlockId("hot.tbl", i)));
+         BufferRing ring = bulk ? bm.newRing() : null;
+         Random rand = new Random(1);
+         long hothits = 0, hotpins = 0;
+         for (int i=0; i<TABLE_BLOCKS; i++) {
+            bm.unpin(bm.pin(new BlockId("big.tbl", i), ring));
+            long before = bm.hits();
+            bm.unpin(bm.pin(new BlockId("hot.tbl", rand.nextInt(HOT_BLOCKS))));
+            hothits += bm.hits() - before;
+            hotpins++;
+         }
+         System.out.println((bulk ? "ring" : "pool") + ": hot hit ratio="
+               + String.format("%.3f", (double) hothits / hotpins));
+         bm.shutdown();
+      }
+   }
+}
@@ -0,0 +1,177 @@
+package org.example.simpledb.buffer;
+
+import java.util.*;
+import org.example.simpledb.file.LatencyHistogram;
+
+/**
+ * A snapshot of the statistics of a buffer pool,
+ * taken by {@link BufferMgr#stats()}.
+ * Comparing the snapshots taken before and after a query
+ * tells whether the query read its blocks from the pool,
+ * read them from disk, or waited for a buffer.
+ * <p>
+ * The getters follow the bean conventions,
+ * so that the snapshot can be viewed through JMX.
+ */
+public class BufferStats {
+   private int size, available;
+   private long hits, misses, evictions, dirtyEvictions, pagesCleaned, cleanerFailures, aborts;
+   private long[] waitHistogram;
+   private long pinWaits;
+   private double meanWaitMicros;
+   private long p99WaitMicros;
+   private Map<String,Integer> residentPages;
+   private long victimHits = 0, victimMisses = 0, victimEvictions = 0, victimBytes = 0;
+   private int victimPages = 0;
+
+   BufferStats(int size, int available, long hits, long misses,
+               long evictions, long dirtyEvictions, long pagesCleaned,
+               long cleanerFailures, LatencyHistogram waits, long aborts, Map<String,Integer> residentPages,
+               VictimCache cache) {
+      this.size = size;
+      this.available = available;
+      this.hits = hits;
+      this.misses = misses;
+      this.evictions = evictions;
+      this.dirtyEvictions = dirtyEvictions;
+      this.pagesCleaned = pagesCleaned;
+      this.cleanerFailures = cleanerFailures;
+      this.waitHistogram = waits.counts();
+      this.pinWaits = Arrays.stream(waitHistogram).sum();
+      this.meanWaitMicros = waits.meanMicros();
+      this.p99WaitMicros = waits.percentileMicros(0.99);
+      this.aborts = aborts;
+      this.residentPages = Collections.unmodifiableMap(residentPages);
+      if (cache != null) {
+         victimHits = cache.hits();
+         victimMisses = cache.misses();
+         victimEvictions = cache.evictions();
+         victimBytes = cache.bytes();
+         victimPages = cache.size();
+      }
+   }
+
+   /** Returns the number of buffers in the pool. */
+   public int getSize() {
+      return size;
+   }
+
+   /** Returns the number of unpinned buffers. */
+   public int getAvailable() {
+      return available;
+   }
+
+   /** Returns the number of pins that found their block buffered. */
+   public long getHits() {
+      return hits;
+   }
+
+   /** Returns the number of pins that had to read their block. */
+   public long getMisses() {
+      return misses;
+   }
+
+   public double getHitRatio() {
+      long total = hits + misses;
+      return (total == 0) ? 0 : (double) hits / total;
+   }
+
+   /**
+    * Returns the number of blocks removed from the pool
+    * to make room for other blocks, by pins, read-ahead and
+    * the shrinking of the pool.
+    */
+   public long getEvictions() {
+      return evictions;
+   }
+
+   /** Returns the number of evicted blocks that had to be written first. */
+   public long getDirtyEvictions() {
+      return dirtyEvictions;
+   }
+
+   /** Returns the number of pages written by the page cleaner. */
+   public long getPagesCleaned() {
+      return pagesCleaned;
+   }
+
+   /** Returns the number of cleaning rounds in which the page cleaner failed to write. */
+   public long getCleanerFailures() {
+      return cleanerFailures;
+   }
+
+   /** Returns the number of pins that found every buffer pinned and waited. */
+   public long getPinWaits() {
+      return pinWaits;
+   }
+
+   /**
+    * Returns the histogram of the waits of those pins,
+    * with the buckets of a {@link LatencyHistogram}.
+    * A pin that gave up is counted with its whole wait.
+    */
+   public long[] getWaitHistogram() {
+      return waitHistogram.clone();
+   }
+
+   public double getMeanWaitMicros() {
+      return meanWaitMicros;
+   }
+
+   public long getP99WaitMicros() {
+      return p99WaitMicros;
+   }
+
+   /** Returns the number of pins that gave up with a {@link BufferAbortException}. */
+   public long getAborts() {
+      return aborts;
+   }
+
+   /** Returns the number of buffered blocks of each file. */
+   public Map<String,Integer> getResidentPages() {
+      return residentPages;
+   }
+
+   /** Returns the number of pool misses served by the victim cache. */
+   public long getVictimHits() {
+      return victimHits;
+   }
+
+   /** Returns the number of pool misses that had to read from disk. */
+   public long getVictimMisses() {
+      return victimMisses;
+   }
+
+   /** Returns the fraction of pool misses served by the victim cache. */
+   public double getVictimHitRatio() {
+      long total = victimHits + victimMisses;
+      return (total == 0) ? 0 : (double) victimHits / total;
+   }
+
+   /** Returns the number of pages dropped from the full victim cache. */
+   public long getVictimEvictions() {
+      return victimEvictions;
+   }
+
+   /** Returns the number of pages in the victim cache. */
+   public int getVictimPages() {
+      return victimPages;
+   }
+
+   /** Returns the bytes used by the victim cache. */
+   public long getVictimBytes() {
+      return victimBytes;
+   }
+
+   public String toString() {
+      return "size=" + size + "|available=" + available
+            + "|hits=" + hits + "|misses=" + misses
+            + String.format("|hitRatio=%.3f", getHitRatio())
+            + "|evictions=" + evictions + "|dirtyEvictions=" + dirtyEvictions
+            + "|pagesCleaned=" + pagesCleaned + "|cleanerFailures=" + cleanerFailures
+            + "|pinWaits=" + pinWaits + String.format("|meanWaitMicros=%.1f", meanWaitMicros)
+            + "|p99WaitMicros=" + p99WaitMicros + "|aborts=" + aborts
+            + "|victimHits=" + victimHits + "|victimMisses=" + victimMisses
+            + "|victimPages=" + victimPages + "|victimBytes=" + victimBytes;
+   }
+}
@@ -0,0 +1,114 @@
+package org.example.simpledb.buffer;
+
+import java.util.*;
+import java.util.function.Predicate;
+
+/**
+ * The clock-sweep approximation of LRU.
+ * Each buffer has a reference bit, which is set when it is pinned.
+ * To choose a victim, a hand sweeps around the buffers,
+ * clearing the bits that are set, and stops at the first
+ * unpinned buffer whose bit is already clear.
+ */
+public class ClockPolicy extends ReplacementPolicy {
+   // the buffers form a circular list, so that a buffer can leave in constant time
+   private Map<Buffer,Node> nodes = new IdentityHashMap<>();
+   private Node hand = null;
+
+   /**
+    * Adds the buffer just behind the hand,
+    * so that it is the last one the sweep reaches.
+    */
+   void add(Buffer buff) {
+      Node n = new Node(buff);
+      if (hand == null) {
+         n.next = n.prev = n;
+         hand = n;
+      }
+      else {
+         n.next = hand;
+         n.prev = hand.prev;
+         hand.prev.next = n;
+         hand.prev = n;
+      }
+      nodes.put(buff, n);
+   }
+
+   void remove(Buffer buff) {
+      Node n = nodes.remove(buff);
+      if (n == null)
+         return;
+      if (n.next == n)
+         hand = null;
+      else {
+         n.prev.next = n.next;
+         n.next.prev = n.prev;
+         if (hand == n)
+            hand = n.next;
+      }
+   }
+
+   void accessed(Buffer buff) {
+      Node n = nodes.get(buff);
+      if (n != null)
+         n.referenced = true;
+   }
+
+   void evicted(Buffer buff) {
+      Node n = nodes.get(buff);
+      if (n != null)
+         n.referenced = false;
+   }
+
+   void loaded(Buffer buff) {
+   }
+
+   /**
+    * Sweeps at most twice around the buffers:
+    * after one full turn every eligible bit has been cleared.
+    */
+   Buffer chooseVictim(Predicate<Buffer> eligible) {
+      for (int i=0; i<2*nodes.size(); i++) {
+         Node n = hand;
+         hand = hand.next;
+         Buffer buff = n.buff;
+         if (buff.block() == null || buff.isPinned() || !eligible.test(buff))
+            continue;
+         if (!n.referenced)
+            return buff;
+         n.referenced = false;
+      }
+      return null;
+   }
+
+   /**
+    * Returns the buffers in the order of the sweep:
+    * those whose bit is clear, starting at the hand,
+    * and then those whose bit is set.
+    */
+   List<Buffer> candidates(int n) {
+      List<Buffer> result = new ArrayList<>();
+      for (boolean second : new boolean[] {false, true}) {
+         Node node = hand;
+         for (int i=0; i<nodes.size(); i++) {
+            if (result.size() >= n)
+               return result;
+            Buffer buff = node.buff;
+            if (buff.block() != null && !buff.isPinned() && node.referenced == second)
+               result.add(buff);
+            node = node.next;
+         }
+      }
+      return result;
+   }
+
+   private static class Node {
+      Buffer buff;
+      boolean referenced = false;
+      Node prev, next;
+
+      Node(Buffer buff) {
+         this.buff = buff;
+      }
+   }
+}
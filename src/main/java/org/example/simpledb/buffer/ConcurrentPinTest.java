@@ -0,0 +1,122 @@
+package org.example.simpledb.buffer;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import org.example.simpledb.file.BlockId;
+import org.example.simpledb.file.FileMgr;
+import org.example.simpledb.file.Page;
+import org.example.simpledb.log.LogMgr;
+
+/**
+ * Pins and unpins blocks from many threads at once,
+ * and checks that the partitioned pool stays consistent:
+ * every pinned buffer holds the block that was asked for,
+ * threads that pin the same block at the same time share
+ * one buffer, no pin gives up, and once every thread is done
+ * all the buffers are available again.
+ * The first run has enough buffers that pins only steal
+ * from other partitions; the second has so few that
+ * pins must wait for buffers to be unpinned.
+ */
+public class ConcurrentPinTest {
+   private static final int BLOCK_SIZE = 400;
+   private static final int BLOCKS = 1000;
+   private static final int HOT = 8;  // blocks that every thread keeps pinning
+   private static FileMgr fm;
+   private static LogMgr lm;
+
+   public static void main(String[] args) throws Exception {
+      File dir = Files.createTempDirectory("pintest").toFile();
+      try {
+         fm = new FileMgr(dir, BLOCK_SIZE);
+         lm = new LogMgr(fm, "pintest.log");
+         Page p = new Page(BLOCK_SIZE);
+         for (int i=0; i<BLOCKS; i++) {
+            p.setInt(0, i);
+            fm.write(fm.append("pin.tbl"), p);
+         }
+         boolean ok = run(128, 16, 3, 20000) & run(8, 6, 2, 5000);
+         System.out.println(ok ? "pool consistent" : "POOL INCONSISTENT");
+      }
+      finally {
+         for (File f : dir.listFiles())
+            f.delete();
+         dir.delete();
+      }
+   }
+
+   /**
+    * Runs the specified number of threads, each of which
+    * repeatedly pins the specified number of blocks,
+    * checks them, and unpins them.
+    */
+   private static boolean run(int buffers, int nthreads, int pinsPerOp, int ops)
+         throws InterruptedException {
+      BufferMgr bm = new BufferMgr(fm, lm, buffers);
+      AtomicBoolean ok = new AtomicBoolean(true);
+      AtomicLong pins = new AtomicLong();
+      Object[] locks = new Object[HOT];
+      Buffer[] owners = new Buffer[HOT];
+      int[] holders = new int[HOT];
+      for (int k=0; k<HOT; k++)
+         locks[k] = new Object();
+
+      Thread[] threads = new Thread[nthreads];
+      for (int t=0; t<nthreads; t++) {
+         Random rand = new Random(t);
+         threads[t] = new Thread(() -> {
+            try {
+               for (int i=0; i<ops; i++) {
+                  int k = rand.nextInt(HOT);
+                  Buffer hot = bm.pin(new BlockId("pin.tbl", k));
+                  synchronized (locks[k]) {
+                     // while a thread holds the block pinned, its buffer cannot change
+                     if (holders[k] > 0 && owners[k] != hot)
+                        ok.set(false);
+                     owners[k] = hot;
+                     holders[k]++;
+                  }
+                  List<Buffer> held = new ArrayList<>();
+                  for (int j=1; j<pinsPerOp; j++) {
+                     int blknum = HOT + rand.nextInt(BLOCKS - HOT);
+                     Buffer buff = bm.pin(new BlockId("pin.tbl", blknum));
+                     if (buff.contents().getInt(0) != blknum || !buff.isPinned())
+                        ok.set(false);
+                     held.add(buff);
+                  }
+                  if (hot.contents().getInt(0) != k)
+                     ok.set(false);
+                  synchronized (locks[k]) {
+                     holders[k]--;
+                  }
+                  bm.unpin(hot);
+                  for (Buffer buff : held)
+                     bm.unpin(buff);
+                  pins.addAndGet(pinsPerOp);
+               }
+            }
+            catch (BufferAbortException e) {
+               ok.set(false);
+            }
+         });
+      }
+      for (Thread th : threads)
+         th.start();
+      for (Thread th : threads)
+         th.join();
+
+      BufferStats stats = bm.stats();
+      boolean consistent = ok.get() && bm.available() == bm.size()
+            && stats.getHits() + stats.getMisses() == pins.get()
+            && stats.getAborts() == 0;
+      System.out.println("buffers=" + buffers + " threads=" + nthreads
+            + " pins=" + pins.get() + " available=" + bm.available()
+            + " pinWaits=" + stats.getPinWaits() + " "
+            + (consistent ? "ok" : "FAILED"));
+      bm.shutdown();
+      return consistent;
+   }
+}
@@ -0,0 +1,99 @@
+package org.example.simpledb.buffer;
+
+import java.util.*;
+import org.example.simpledb.file.BlockId;
+
+/**
+ * The dirty buffers of the pool.
+ * The table keeps the set of buffers modified by each transaction,
+ * so that a commit writes only the transaction's own buffers
+ * instead of looking at every buffer of the pool.
+ * It also keeps the recovery LSN of each dirty buffer:
+ * the LSN of the first log record of the changes
+ * that have not yet been written.
+ * A checkpoint writes the buffers of the table,
+ * and the page cleaner consults it to skip a round
+ * when there is nothing to write.
+ * <p>
+ * Buffers report their changes through
+ * {@link Buffer#setModified} and {@link Buffer#flush},
+ * so the table is updated only when a buffer becomes dirty,
+ * changes transaction, or is written.
+ */
+class DirtyPageTable {
+   private Map<Integer,Set<Buffer>> txBuffers = new HashMap<>();
+   private Map<Buffer,Integer> recLSNs = new HashMap<>();
+
+   /**
+    * Records that the buffer has been modified by the transaction.
+    * @param oldtx the transaction that previously modified it, or -1
+    * @param recLSN the LSN of the first unwritten change, or -1 if none was logged
+    */
+   synchronized void modified(Buffer buff, int oldtx, int txnum, int recLSN) {
+      if (oldtx != txnum) {
+         if (oldtx >= 0)
+            removeFromTx(buff, oldtx);
+         txBuffers.computeIfAbsent(txnum, k -> new HashSet<>()).add(buff);
+      }
+      recLSNs.put(buff, recLSN);
+   }
+
+   /**
+    * Records that the buffer's changes have been written,
+    * or that they have been discarded.
+    */
+   synchronized void cleaned(Buffer buff, int txnum) {
+      removeFromTx(buff, txnum);
+      recLSNs.remove(buff);
+   }
+
+   /**
+    * Returns the dirty buffers modified by the transaction.
+    */
+   synchronized List<Buffer> buffersOf(int txnum) {
+      Set<Buffer> buffs = txBuffers.get(txnum);
+      return (buffs == null) ? List.of() : new ArrayList<>(buffs);
+   }
+
+   /**
+    * Returns all the dirty buffers.
+    */
+   synchronized List<Buffer> buffers() {
+      return new ArrayList<>(recLSNs.keySet());
+   }
+
+   synchronized boolean isEmpty() {
+      return recLSNs.isEmpty();
+   }
+
+   /**
+    * Returns the recovery LSN of each dirty block.
+    */
+   synchronized Map<BlockId,Integer> recLSNs() {
+      Map<BlockId,Integer> result = new HashMap<>();
+      for (Map.Entry<Buffer,Integer> e : recLSNs.entrySet())
+         result.put(e.getKey().block(), e.getValue());
+      return result;
+   }
+
+   /**
+    * Returns the smallest recovery LSN of the dirty buffers,
+    * or -1 if no dirty buffer has a logged change.
+    */
+   synchronized int minRecLSN() {
+      int min = -1;
+      for (int lsn : recLSNs.values())
+         if (lsn >= 0 && (min < 0 || lsn < min))
+            min = lsn;
+      return min;
+   }
+
+   private void removeFromTx(Buffer buff, int txnum) {
+      Set<Buffer> buffs = txBuffers.get(txnum);
+      if (buffs != null) {
+         buffs.remove(buff);
+         if (buffs.isEmpty())
+            txBuffers.remove(txnum);
+      }
+   }
+}
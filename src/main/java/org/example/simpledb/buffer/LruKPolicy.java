@@ -0,0 +1,107 @@
+package org.example.simpledb.buffer;
+
+import java.util.*;
+import java.util.function.Predicate;
+import org.example.simpledb.file.BlockId;
+
+/**
+ * The LRU-K policy, which replaces the buffer whose
+ * K-th most recent reference is oldest.
+ * A block referenced fewer than K times is replaced first,
+ * least recently used first,
+ * so blocks touched once by a scan do not push out
+ * blocks that are used again and again.
+ * <p>
+ * The reference history of a replaced block is retained
+ * for a while, so that a block that returns soon
+ * is recognized as frequently used.
+ * Time is measured in pins.
+ */
+public class LruKPolicy extends ReplacementPolicy {
+   private int k;
+   private long clock = 0;
+   private Map<Buffer,History> histories = new IdentityHashMap<>();
+   private TreeSet<History> order = new TreeSet<>(
+         Comparator.comparingLong((History h) -> h.times[h.times.length-1])
+                   .thenComparingLong(h -> h.last)
+                   .thenComparingInt(h -> h.id));
+   private int nextId = 0;
+   // as many histories are retained as there are buffers
+   private LinkedHashMap<BlockId,long[]> retained = new LinkedHashMap<>() {
+      protected boolean removeEldestEntry(Map.Entry<BlockId,long[]> e) {
+         return size() > histories.size();
+      }
+   };
+
+   public LruKPolicy(int k) {
+      this.k = k;
+   }
+
+   void add(Buffer buff) {
+      histories.put(buff, new History(buff, nextId++));
+   }
+
+   void remove(Buffer buff) {
+      order.remove(histories.remove(buff));
+   }
+
+   void accessed(Buffer buff) {
+      History h = histories.get(buff);
+      order.remove(h);
+      clock++;
+      System.arraycopy(h.times, 0, h.times, 1, k-1);
+      h.times[0] = clock;
+      h.last = clock;
+      order.add(h);
+   }
+
+   void evicted(Buffer buff) {
+      History h = histories.get(buff);
+      order.remove(h);
+      if (buff.block() != null && h.times[0] > 0)
+         retained.put(buff.block(), h.times.clone());
+   }
+
+   void loaded(Buffer buff) {
+      History h = histories.get(buff);
+      long[] old = retained.remove(buff.block());
+      h.times = (old != null) ? old : new long[k];
+      h.last = clock;
+      order.add(h);
+   }
+
+   Buffer chooseVictim(Predicate<Buffer> eligible) {
+      for (History h : order)
+         if (!h.buff.isPinned() && eligible.test(h.buff))
+            return h.buff;
+      return null;
+   }
+
+   List<Buffer> candidates(int n) {
+      List<Buffer> result = new ArrayList<>();
+      for (History h : order) {
+         if (result.size() >= n)
+            break;
+         if (!h.buff.isPinned())
+            result.add(h.buff);
+      }
+      return result;
+   }
+
+   /**
+    * The reference times of a buffer's block, most recent first;
+    * a time of 0 means no reference.
+    * The time of the last reference or load breaks ties.
+    */
+   private class History {
+      Buffer buff;
+      int id;
+      long[] times = new long[k];
+      long last = 0;
+
+      History(Buffer buff, int id) {
+         this.buff = buff;
+         this.id = id;
+      }
+   }
+}
@@ -0,0 +1,57 @@
+package org.example.simpledb.buffer;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.function.Predicate;
+
+/**
+ * Replaces the least recently unpinned buffer.
+ * The unpinned buffers are kept in the order
+ * in which they were unpinned.
+ */
+public class LruPolicy extends ReplacementPolicy {
+   private LinkedHashSet<Buffer> unpinned = new LinkedHashSet<>();
+
+   void add(Buffer buff) {
+   }
+
+   void remove(Buffer buff) {
+      unpinned.remove(buff);
+   }
+
+   void accessed(Buffer buff) {
+      unpinned.remove(buff);
+   }
+
+   void unpinned(Buffer buff) {
+      unpinned.add(buff);
+   }
+
+   void evicted(Buffer buff) {
+      unpinned.remove(buff);
+   }
+
+   void loaded(Buffer buff) {
+      if (!buff.isPinned())
+         unpinned.add(buff);
+   }
+
+   Buffer chooseVictim(Predicate<Buffer> eligible) {
+      for (Buffer buff : unpinned)
+         if (!buff.isPinned() && eligible.test(buff))
+            return buff;
+      return null;
+   }
+
+   List<Buffer> candidates(int n) {
+      List<Buffer> result = new ArrayList<>();
+      for (Buffer buff : unpinned) {
+         if (result.size() >= n)
+            break;
+         if (!buff.isPinned())
+            result.add(buff);
+      }
+      return result;
+   }
+}
@@ -0,0 +1,188 @@
+package org.example.simpledb.buffer;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A background thread that writes dirty, unpinned buffers
+ * before the replacement policy chooses them as victims,
+ * so that a pin seldom has to write another transaction's
+ * changes before it can read its own block.
+ * <p>
+ * The cleaner wakes every {@link #INTERVAL_MS} milliseconds,
+ * or sooner when a pin had to replace a dirty buffer.
+ * In each partition it looks at the next buffers to be replaced,
+ * and writes the dirty ones until {@link #TARGET_CLEAN_PERCENT}
+ * percent of the partition's buffers are empty or clean and
+ * next in line.
+ * It writes at most {@link #PAGES_PER_SECOND} pages a second,
+ * so that it does not compete with foreground I/O;
+ * a rate of 0 disables the cleaner.
+ * Rounds are skipped while the dirty page table is empty.
+ * <p>
+ * A buffer is written while its partition is locked, so it
+ * cannot be pinned and modified during the write.
+ * Like any other write, it first flushes the log up to the
+ * buffer's LSN (see {@link Buffer#flush}), so the log
+ * is always ahead of the data.
+ * <p>
+ * A write that fails, as when the disk is full, is left to be
+ * retried by the pin that replaces the buffer. The cleaner counts
+ * the failure, keeps the error for the statistics, and backs off,
+ * doubling its interval after each failed round up to
+ * {@link #MAX_BACKOFF_MS} milliseconds.
+ */
+public class PageCleaner {
+   public static int PAGES_PER_SECOND = 2000;
+   public static int TARGET_CLEAN_PERCENT = 25;
+   public static int INTERVAL_MS = 10;
+   public static int MAX_BACKOFF_MS = 1000;
+   private BufferPartition[] partitions;
+   private DirtyPageTable dirty;
+   private Thread thread;
+   private volatile boolean running = true;
+   private boolean wakeup = false;
+   private ReentrantLock lock = new ReentrantLock();
+   private Condition wakeupCalled = lock.newCondition();
+   private AtomicLong written = new AtomicLong();
+   private AtomicLong failures = new AtomicLong();
+   private volatile RuntimeException lastFailure = null;
+
+   PageCleaner(BufferPartition[] partitions, DirtyPageTable dirty) {
+      this.partitions = partitions;
+      this.dirty = dirty;
+      thread = new Thread(this::run, "simpledb-cleaner");
+      thread.setDaemon(true);
+      thread.start();
+   }
+
+   /**
+    * Asks the cleaner to start a round now,
+    * because a pin has found a dirty victim.
+    */
+   void wakeup() {
+      lock.lock();
+      try {
+         wakeup = true;
+         wakeupCalled.signal();
+      }
+      finally {
+         lock.unlock();
+      }
+   }
+
+   /**
+    * Stops the cleaner thread.
+    */
+   void shutdown() {
+      running = false;
+      thread.interrupt();
+   }
+
+   /**
+    * Returns the number of pages written by the cleaner.
+    * @return the number of pages written
+    */
+   public long pagesWritten() {
+      return written.get();
+   }
+
+   /**
+    * Returns the number of cleaning rounds that failed to write a page.
+    * @return the number of failures
+    */
+   public long failures() {
+      return failures.get();
+   }
+
+   /**
+    * Returns the error of the most recent failed round.
+    * @return the error, or null if no round has failed
+    */
+   public RuntimeException lastFailure() {
+      return lastFailure;
+   }
+
+   private void run() {
+      // unused write allowance carries over, up to one interval's worth
+      double allowance = 0;
+      long last = System.nanoTime();
+      int backoff = 0;
+      while (running) {
+         try {
+            if (backoff > 0)
+               Thread.sleep(backoff);
+            sleep();
+         }
+         catch (InterruptedException e) {
+            return;
+         }
+         long now = System.nanoTime();
+         double max = Math.max(1.0, PAGES_PER_SECOND * INTERVAL_MS / 1000.0);
+         allowance = Math.min(max, allowance + PAGES_PER_SECOND * (now - last) / 1e9);
+         last = now;
+         try {
+            if (PAGES_PER_SECOND > 0 && !dirty.isEmpty())
+               allowance -= cleanRound((int) allowance);
+            backoff = 0;
+         }
+         catch (RuntimeException e) {
+            // a failed write is retried by the pin that replaces the buffer
+            failures.incrementAndGet();
+            lastFailure = e;
+            backoff = Math.min(MAX_BACKOFF_MS, Math.max(INTERVAL_MS, 2 * backoff));
+         }
+      }
+   }
+
+   private void sleep() throws InterruptedException {
+      lock.lock();
+      try {
+         if (!wakeup)
+            wakeupCalled.await(INTERVAL_MS, TimeUnit.MILLISECONDS);
+         wakeup = false;
+      }
+      finally {
+         lock.unlock();
+      }
+   }
+
+   /**
+    * Writes up to the specified number of pages,
+    * sharing them among the partitions.
+    * The partition is locked separately for each write,
+    * so that pins are held up for one write at most.
+    * @return the number of pages written
+    */
+   private int cleanRound(int budget) {
+      int count = 0;
+      for (int i=0; i<partitions.length && count<budget; i++) {
+         BufferPartition p = partitions[i];
+         int share = (budget - count + partitions.length - i - 1) / (partitions.length - i);
+         List<Buffer> dirty;
+         p.lock();
+         try {
+            dirty = p.toClean(TARGET_CLEAN_PERCENT);
+         }
+         finally {
+            p.unlock();
+         }
+         for (int j=0; j<dirty.size() && j<share; j++) {
+            Buffer buff = dirty.get(j);
+            p.lock();
+            try {
+               if (p.clean(buff))
+                  count++;
+            }
+            finally {
+               p.unlock();
+            }
+         }
+      }
+      written.addAndGet(count);
+      return count;
+   }
+}
@@ -0,0 +1,115 @@
+package org.example.simpledb.buffer;
+
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Predicate;
+
+/**
+ * A strategy for choosing which buffer to replace.
+ * The buffer manager tells the policy whenever a buffer
+ * is pinned, unpinned, or assigned to a different block,
+ * and asks it for a victim when a block must be read
+ * and no empty buffer is left.
+ * <p>
+ * Each partition of the buffer pool has its own policy,
+ * and its methods are called while the partition is locked,
+ * so a policy needs no synchronization of its own.
+ * Buffers can join and leave a policy at any time.
+ * The policy also counts the pins that found their block
+ * already buffered, so that policies can be compared
+ * by their hit ratios; the counts can be read without the lock.
+ */
+public abstract class ReplacementPolicy {
+   private LongAdder hits = new LongAdder(), misses = new LongAdder();
+
+   /**
+    * Adds an empty buffer to the buffers managed by the policy.
+    */
+   abstract void add(Buffer buff);
+
+   /**
+    * Removes an unpinned buffer from the buffers managed by the policy.
+    * The buffer has already been evicted.
+    */
+   abstract void remove(Buffer buff);
+
+   /**
+    * Records that the buffer has been pinned.
+    * @param buff the buffer
+    * @param hit true if the block was already in the buffer
+    */
+   void pinned(Buffer buff, boolean hit) {
+      if (hit)
+         hits.increment();
+      else
+         misses.increment();
+      accessed(buff);
+   }
+
+   /**
+    * Records a reference to the block in the buffer.
+    */
+   abstract void accessed(Buffer buff);
+
+   /**
+    * Records that the buffer's pin count has dropped to zero.
+    * A buffer can be pinned again before this method is called,
+    * so policies must still check that a victim is unpinned.
+    */
+   void unpinned(Buffer buff) {
+   }
+
+   /**
+    * Records that the buffer is about to give up its block.
+    */
+   abstract void evicted(Buffer buff);
+
+   /**
+    * Records that the buffer has been assigned a new block.
+    * The assignment is not itself a reference to the block:
+    * a block read ahead is referenced only when it is pinned.
+    */
+   abstract void loaded(Buffer buff);
+
+   /**
+    * Chooses an unpinned buffer that holds a block
+    * and satisfies the specified condition.
+    * @param eligible the condition on the victim
+    * @return the buffer to replace, or null if there is none
+    */
+   abstract Buffer chooseVictim(Predicate<Buffer> eligible);
+
+   /**
+    * Returns the unpinned buffers that hold blocks,
+    * in about the order in which they would be replaced.
+    * The page cleaner writes these buffers
+    * before the policy chooses them as victims.
+    * The policy's state is not changed.
+    * @param n the maximum number of buffers to return
+    * @return the next buffers to be replaced
+    */
+   abstract List<Buffer> candidates(int n);
+
+   public long getHits() {
+      return hits.sum();
+   }
+
+   public long getMisses() {
+      return misses.sum();
+   }
+
+   /**
+    * Returns the fraction of pins that found their block
+    * already buffered.
+    * @return the hit ratio, or 0 if nothing has been pinned
+    */
+   public double hitRatio() {
+      long h = getHits(), total = h + getMisses();
+      return (total == 0) ? 0 : (double) h / total;
+   }
+
+   public String toString() {
+      return getClass().getSimpleName() + "|hits=" + getHits() + "|misses=" + getMisses()
+            + String.format("|hitRatio=%.3f", hitRatio());
+   }
+}
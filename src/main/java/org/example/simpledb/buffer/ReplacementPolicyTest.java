@@ -0,0 +1,49 @@
+package org.example.simpledb.buffer;
+
+import java.io.File;
+import java.util.Random;
+import org.example.simpledb.file.BlockId;
+import org.example.simpledb.file.FileMgr;
+import org.example.simpledb.file.PrefetchScheduler;
+import org.example.simpledb.log.LogMgr;
+
+/**
+ * Compares the hit ratios of the replacement policies
+ * on a workload that mixes lookups of a small hot set
+ * (like catalog and B-tree root blocks) with sequential scans
+ * of a table much larger than the buffer pool.
+ */
+public class ReplacementPolicyTest {
+   private static final int BUFFERS = 64;
+   private static final int HOT_BLOCKS = 32;
+   private static final int TABLE_BLOCKS = 1000;
+   private static final int ROUNDS = 20;
+
+   public static void main(String[] args) {
+      FileMgr fm = new FileMgr(new File("policytest"), 400, 64);
+      LogMgr lm = new LogMgr(fm, "policytest.log");
+      while (fm.length("hot.tbl") < HOT_BLOCKS)
+         fm.append("hot.tbl");
+      while (fm.length("big.tbl") < TABLE_BLOCKS)
+         fm.append("big.tbl");
+
+      for (ReplacementStrategy strategy : ReplacementStrategy.values()) {
+         BufferMgr bm = new BufferMgr(fm, lm, BUFFERS, new PrefetchScheduler(fm, 1), strategy);
+         Random rand = new Random(1);
+         for (int r=0; r<ROUNDS; r++)
+            for (int i=0; i<TABLE_BLOCKS; i++) {
+               // every scanned block is interleaved with two hot lookups
+               access(bm, new BlockId("big.tbl", i));
+               access(bm, new BlockId("hot.tbl", rand.nextInt(HOT_BLOCKS)));
+               access(bm, new BlockId("hot.tbl", rand.nextInt(HOT_BLOCKS)));
+            }
+         System.out.println(strategy + ": hits=" + bm.hits() + "|misses=" + bm.misses()
+               + String.format("|hitRatio=%.3f", bm.hitRatio()));
+         bm.shutdown();
+      }
+   }
+
+   private static void access(BufferMgr bm, BlockId blk) {
+      bm.unpin(bm.pin(blk));
+   }
+}
@@ -0,0 +1,28 @@
+package org.example.simpledb.buffer;
+
+/**
+ * The buffer replacement policies that the system can be configured with.
+ */
+public enum ReplacementStrategy {
+   /** Replace the least recently unpinned buffer; see {@link LruPolicy}. */
+   LRU,
+   /** Clock sweep; see {@link ClockPolicy}. */
+   CLOCK,
+   /** LRU-2; see {@link LruKPolicy}. */
+   LRU_K,
+   /** 2Q; see {@link TwoQueuePolicy}. */
+   TWO_Q;
+
+   /**
+    * Creates a new instance of the policy.
+    * @return the policy
+    */
+   public ReplacementPolicy newPolicy() {
+      switch (this) {
+         case CLOCK: return new ClockPolicy();
+         case LRU_K: return new LruKPolicy(2);
+         case TWO_Q: return new TwoQueuePolicy();
+         default:    return new LruPolicy();
+      }
+   }
+}
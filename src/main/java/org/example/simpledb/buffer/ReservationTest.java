@@ -0,0 +1,197 @@
+package org.example.simpledb.buffer;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.example.simpledb.file.BlockId;
+import org.example.simpledb.file.FileMgr;
+import org.example.simpledb.file.Page;
+import org.example.simpledb.log.LogMgr;
+
+/**
+ * Checks that buffer reservations give up at their deadline,
+ * returning the buffers they had collected,
+ * that waiting reservations are granted in the order
+ * they were requested, without being starved by a thread
+ * that keeps pinning single blocks,
+ * and that a read-ahead through a reservation uses
+ * only the reserved buffers.
+ */
+public class ReservationTest {
+   private static final int BLOCK_SIZE = 400;
+   private static final int BLOCKS = 200;
+   private static FileMgr fm;
+   private static LogMgr lm;
+
+   public static void main(String[] args) throws Exception {
+      File dir = Files.createTempDirectory("reservetest").toFile();
+      try {
+         fm = new FileMgr(dir, BLOCK_SIZE);
+         lm = new LogMgr(fm, "reservetest.log");
+         Page p = new Page(BLOCK_SIZE);
+         for (int i=0; i<BLOCKS; i++) {
+            p.setInt(0, i);
+            fm.write(fm.append("reserve.tbl"), p);
+         }
+         boolean ok = deadline() & fifo() & readAhead();
+         System.out.println(ok ? "reservations consistent" : "RESERVATIONS INCONSISTENT");
+      }
+      finally {
+         for (File f : dir.listFiles())
+            f.delete();
+         dir.delete();
+      }
+   }
+
+   /**
+    * Pins 12 of 16 buffers, and asks for a reservation
+    * larger than the pool and then one larger than what is left.
+    */
+   private static boolean deadline() {
+      BufferMgr bm = new BufferMgr(fm, lm, 16);
+      List<Buffer> held = new ArrayList<>();
+      for (int i=0; i<12; i++)
+         held.add(bm.pin(new BlockId("reserve.tbl", i)));
+      boolean ok = aborts(bm, 20, 1000) < 100;
+      long elapsed = aborts(bm, 8, 200);
+      ok = ok && elapsed >= 200 && elapsed < BufferMgr.MAX_TIME
+            && bm.available() == 4 && bm.stats().getAborts() == 2;
+      for (Buffer buff : held)
+         bm.unpin(buff);
+      ok = ok && bm.available() == 16;
+      System.out.println("reservation gives up after " + elapsed + "ms, available="
+            + bm.available() + " " + (ok ? "ok" : "FAILED"));
+      bm.shutdown();
+      return ok;
+   }
+
+   // Returns how long the reservation took to abort, or MAX_TIME if it was granted.
+   private static long aborts(BufferMgr bm, int n, long timeout) {
+      long start = System.currentTimeMillis();
+      try {
+         bm.reserve(n, timeout).release();
+         return BufferMgr.MAX_TIME;
+      }
+      catch (BufferAbortException e) {
+         return System.currentTimeMillis() - start;
+      }
+   }
+
+   /**
+    * Pins 12 of 16 buffers, starts a reservation of 8 and then one of 2,
+    * and unpins the held buffers one at a time while another thread
+    * keeps pinning single blocks.
+    * The reservation of 8 must be granted first.
+    */
+   private static boolean fifo() throws InterruptedException {
+      BufferMgr bm = new BufferMgr(fm, lm, 16);
+      List<Buffer> held = new ArrayList<>();
+      for (int i=0; i<12; i++)
+         held.add(bm.pin(new BlockId("reserve.tbl", i)));
+      AtomicBoolean ok = new AtomicBoolean(true);
+      AtomicInteger granted = new AtomicInteger();
+      int[] order = new int[2];
+
+      Thread first = reserver(bm, 8, 50, order, 0, granted, ok);
+      first.start();
+      Thread.sleep(100);
+      Thread second = reserver(bm, 2, 150, order, 1, granted, ok);
+      second.start();
+      Thread.sleep(100);
+      // a reservation is waiting, so none can be had at once
+      if (bm.tryReserve(1) != null)
+         ok.set(false);
+
+      AtomicBoolean running = new AtomicBoolean(true);
+      Thread hog = new Thread(() -> {
+         Random rand = new Random(1);
+         while (running.get()) {
+            int blknum = 100 + rand.nextInt(BLOCKS - 100);
+            Buffer buff = bm.pin(new BlockId("reserve.tbl", blknum));
+            if (buff.contents().getInt(0) != blknum)
+               ok.set(false);
+            bm.unpin(buff);
+         }
+      });
+      hog.start();
+      for (Buffer buff : held) {
+         Thread.sleep(20);
+         bm.unpin(buff);
+      }
+      first.join();
+      second.join();
+      running.set(false);
+      hog.join();
+
+      boolean consistent = ok.get() && order[0] == 1 && order[1] == 2
+            && bm.available() == 16 && bm.stats().getAborts() == 0;
+      System.out.println("reservations granted in order " + order[0] + "," + order[1]
+            + ", available=" + bm.available() + " " + (consistent ? "ok" : "FAILED"));
+      bm.shutdown();
+      return consistent;
+   }
+
+   /**
+    * Reserves 8 of 16 buffers and reads 8 blocks ahead through
+    * the reservation. The other buffers stay available, the blocks
+    * are pinned through the reservation, and releasing a reservation
+    * unpins the blocks read ahead that were never pinned.
+    */
+   private static boolean readAhead() {
+      BufferMgr bm = new BufferMgr(fm, lm, 16);
+      BufferReservation r = bm.reserve(8, 1000);
+      bm.readAhead("reserve.tbl", 20, 8, r);
+      boolean ok = bm.available() == 8 && r.remaining() == 8;
+      List<Buffer> pinned = new ArrayList<>();
+      for (int i=20; i<28; i++) {
+         Buffer buff = bm.pin(new BlockId("reserve.tbl", i), r);
+         ok = ok && buff.contents().getInt(0) == i;
+         pinned.add(buff);
+      }
+      ok = ok && r.remaining() == 0 && bm.available() == 8;
+      r.release();
+      for (Buffer buff : pinned)
+         bm.unpin(buff);
+      ok = ok && bm.available() == 16;
+
+      r = bm.reserve(8, 1000);
+      bm.readAhead("reserve.tbl", 40, 8, r);
+      r.release();
+      ok = ok && bm.available() == 16;
+      System.out.println("read-ahead through a reservation: "
+            + (ok ? "ok" : "FAILED"));
+      bm.shutdown();
+      return ok;
+   }
+
+   /**
+    * Returns a thread that reserves n buffers, records when it was granted,
+    * pins n blocks through the reservation, and unpins them.
+    */
+   private static Thread reserver(BufferMgr bm, int n, int firstblk, int[] order, int i,
+         AtomicInteger granted, AtomicBoolean ok) {
+      return new Thread(() -> {
+         try {
+            BufferReservation r = bm.reserve(n, 5000);
+            order[i] = granted.incrementAndGet();
+            List<Buffer> pinned = new ArrayList<>();
+            for (int k=0; k<n; k++) {
+               Buffer buff = bm.pin(new BlockId("reserve.tbl", firstblk + k), r);
+               if (buff.contents().getInt(0) != firstblk + k)
+                  ok.set(false);
+               pinned.add(buff);
+            }
+            if (r.remaining() != 0)
+               ok.set(false);
+            r.release();
+            for (Buffer buff : pinned)
+               bm.unpin(buff);
+         }
+         catch (BufferAbortException e) {
+            ok.set(false);
+         }
+      });
+   }
+}
@@ -0,0 +1,163 @@
+package org.example.simpledb.buffer;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.example.simpledb.file.BlockId;
+import org.example.simpledb.file.FileMgr;
+import org.example.simpledb.file.Page;
+import org.example.simpledb.log.LogMgr;
+
+/**
+ * Resizes the buffer pool while many threads pin and modify blocks,
+ * and checks that every pin gets the block it asked for,
+ * that each thread reads back what it last wrote
+ * even after its buffer was removed by a shrink,
+ * and that the pool ends up with the requested size.
+ * It then shrinks a pool below the number of pinned buffers,
+ * checks that the pinned buffers are kept until they are unpinned,
+ * and checks that growing the pool wakes a waiting pin.
+ */
+public class ResizeTest {
+   private static final int BLOCK_SIZE = 400;
+   private static final int BLOCKS = 2000;
+   private static final int THREADS = 16;
+   private static FileMgr fm;
+   private static LogMgr lm;
+
+   public static void main(String[] args) throws Exception {
+      File dir = Files.createTempDirectory("resizetest").toFile();
+      try {
+         fm = new FileMgr(dir, BLOCK_SIZE);
+         lm = new LogMgr(fm, "resizetest.log");
+         Page p = new Page(BLOCK_SIZE);
+         for (int i=0; i<BLOCKS+THREADS; i++) {
+            p.setInt(0, i);
+            fm.write(fm.append("resize.tbl"), p);
+         }
+         boolean ok = underLoad() & whilePinned() & wakeOnGrow();
+         System.out.println(ok ? "resizes consistent" : "RESIZES INCONSISTENT");
+      }
+      finally {
+         for (File f : dir.listFiles())
+            f.delete();
+         dir.delete();
+      }
+   }
+
+   /**
+    * Runs threads that each pin a random block and their own block,
+    * writing a counter to their own block,
+    * while the pool is resized up and down.
+    * A thread holds at most one buffer while it waits for another,
+    * so a pool of at least twice the number of threads cannot deadlock.
+    */
+   private static boolean underLoad() throws InterruptedException {
+      BufferMgr bm = new BufferMgr(fm, lm, 64);
+      AtomicBoolean ok = new AtomicBoolean(true);
+      AtomicBoolean running = new AtomicBoolean(true);
+      Thread[] threads = new Thread[THREADS];
+      for (int t=0; t<THREADS; t++) {
+         int txnum = t + 1;
+         BlockId own = new BlockId("resize.tbl", BLOCKS + t);
+         Random rand = new Random(t);
+         threads[t] = new Thread(() -> {
+            try {
+               for (int i=1; running.get(); i++) {
+                  int blknum = rand.nextInt(BLOCKS);
+                  Buffer buff = bm.pin(new BlockId("resize.tbl", blknum));
+                  if (buff.contents().getInt(0) != blknum)
+                     ok.set(false);
+                  Buffer mine = bm.pin(own);
+                  if (mine.contents().getInt(0) != own.number()
+                        || mine.contents().getInt(4) != i - 1)
+                     ok.set(false);
+                  mine.contents().setInt(4, i);
+                  mine.setModified(txnum, -1);
+                  bm.unpin(mine);
+                  bm.unpin(buff);
+               }
+            }
+            catch (BufferAbortException e) {
+               ok.set(false);
+            }
+         });
+         threads[t].start();
+      }
+      try {
+         for (int size : new int[] {32, 200, 48, 400, 64, 100, 2 * THREADS, 64}) {
+            Thread.sleep(100);
+            bm.resize(size);
+         }
+         Thread.sleep(100);
+      }
+      finally {
+         running.set(false);
+         for (Thread th : threads)
+            th.join();
+      }
+
+      BufferStats stats = bm.stats();
+      boolean consistent = ok.get() && bm.size() == 64 && bm.available() == 64
+            && stats.getAborts() == 0;
+      System.out.println("under load: size=" + bm.size() + " available=" + bm.available()
+            + " pinWaits=" + stats.getPinWaits() + " "
+            + (consistent ? "ok" : "FAILED"));
+      bm.shutdown();
+      return consistent;
+   }
+
+   /**
+    * Shrinks a pool of 8 buffers to 2 while 6 are pinned.
+    * The pinned buffers stay in the pool, holding their blocks,
+    * until they are unpinned.
+    */
+   private static boolean whilePinned() {
+      BufferMgr bm = new BufferMgr(fm, lm, 8);
+      List<Buffer> pinned = new ArrayList<>();
+      for (int i=0; i<6; i++)
+         pinned.add(bm.pin(new BlockId("resize.tbl", i)));
+      bm.resize(2);
+      boolean ok = bm.size() == 6 && bm.available() == 0;
+      for (int i=0; i<6; i++)
+         ok = ok && pinned.get(i).isPinned() && pinned.get(i).contents().getInt(0) == i;
+      int during = bm.size();
+      for (Buffer buff : pinned)
+         bm.unpin(buff);
+      ok = ok && bm.size() == 2 && bm.available() == 2;
+      System.out.println("shrink while pinned: size " + during + " then " + bm.size()
+            + " " + (ok ? "ok" : "FAILED"));
+      bm.shutdown();
+      return ok;
+   }
+
+   /**
+    * Pins every buffer of a pool, starts a pin that must wait,
+    * and grows the pool.
+    */
+   private static boolean wakeOnGrow() throws InterruptedException {
+      BufferMgr bm = new BufferMgr(fm, lm, 4);
+      for (int i=0; i<4; i++)
+         bm.pin(new BlockId("resize.tbl", i));
+      AtomicBoolean got = new AtomicBoolean(false);
+      Thread waiter = new Thread(() -> {
+         try {
+            Buffer buff = bm.pin(new BlockId("resize.tbl", 10));
+            got.set(buff.contents().getInt(0) == 10);
+         }
+         catch (BufferAbortException e) {
+         }
+      });
+      long start = System.currentTimeMillis();
+      waiter.start();
+      Thread.sleep(200);
+      bm.resize(6);
+      waiter.join();
+      long elapsed = System.currentTimeMillis() - start;
+      boolean ok = got.get() && elapsed < BufferMgr.MAX_TIME;
+      System.out.println("grow wakes a waiting pin: " + (ok ? "ok" : "FAILED"));
+      bm.shutdown();
+      return ok;
+   }
+}
@@ -0,0 +1,88 @@
+package org.example.simpledb.buffer;
+
+import java.util.*;
+import java.util.function.Predicate;
+import org.example.simpledb.file.BlockId;
+
+/**
+ * The 2Q policy.
+ * A newly read block enters a FIFO queue, A1in.
+ * A block that is referenced again after it has left A1in
+ * is considered hot, and enters an LRU queue, Am.
+ * To tell which blocks have left A1in recently, the policy
+ * remembers their ids (but not their contents) in a third
+ * queue, A1out.
+ * Blocks are replaced from A1in while it holds more than
+ * its share of the pool, and from Am otherwise,
+ * so a long scan cycles through A1in without
+ * disturbing the hot blocks in Am.
+ */
+public class TwoQueuePolicy extends ReplacementPolicy {
+   private LinkedHashSet<Buffer> a1in = new LinkedHashSet<>();
+   private LinkedHashSet<Buffer> am = new LinkedHashSet<>();
+   private int size = 0;
+   // A1in may hold a quarter of the buffers, and A1out remembers half as many blocks
+   private LinkedHashMap<BlockId,Boolean> a1out = new LinkedHashMap<>() {
+      protected boolean removeEldestEntry(Map.Entry<BlockId,Boolean> e) {
+         return size() > Math.max(1, TwoQueuePolicy.this.size / 2);
+      }
+   };
+
+   void add(Buffer buff) {
+      size++;
+   }
+
+   void remove(Buffer buff) {
+      a1in.remove(buff);
+      am.remove(buff);
+      size--;
+   }
+
+   void accessed(Buffer buff) {
+      if (am.remove(buff))
+         am.add(buff);
+   }
+
+   void evicted(Buffer buff) {
+      if (a1in.remove(buff) && buff.block() != null)
+         a1out.put(buff.block(), true);
+      am.remove(buff);
+   }
+
+   void loaded(Buffer buff) {
+      if (a1out.remove(buff.block()) != null)
+         am.add(buff);
+      else
+         a1in.add(buff);
+   }
+
+   Buffer chooseVictim(Predicate<Buffer> eligible) {
+      int kin = Math.max(1, size / 4);
+      LinkedHashSet<Buffer> first = (a1in.size() > kin) ? a1in : am;
+      LinkedHashSet<Buffer> second = (first == a1in) ? am : a1in;
+      Buffer buff = oldest(first, eligible);
+      return (buff != null) ? buff : oldest(second, eligible);
+   }
+
+   List<Buffer> candidates(int n) {
+      int kin = Math.max(1, size / 4);
+      LinkedHashSet<Buffer> first = (a1in.size() > kin) ? a1in : am;
+      LinkedHashSet<Buffer> second = (first == a1in) ? am : a1in;
+      List<Buffer> result = new ArrayList<>();
+      for (LinkedHashSet<Buffer> queue : List.of(first, second))
+         for (Buffer buff : queue) {
+            if (result.size() >= n)
+               return result;
+            if (!buff.isPinned())
+               result.add(buff);
+         }
+      return result;
+   }
+
+   private Buffer oldest(LinkedHashSet<Buffer> queue, Predicate<Buffer> eligible) {
+      for (Buffer buff : queue)
+         if (!buff.isPinned() && eligible.test(buff))
+            return buff;
+      return null;
+   }
+}
@@ -0,0 +1,127 @@
+package org.example.simpledb.buffer;
+
+import java.nio.ByteBuffer;
+import java.util.*;
+import org.example.simpledb.file.BlockId;
+import org.example.simpledb.file.PageCodec;
+
+/**
+ * A second-level cache of the pages that the buffer pool
+ * has replaced, kept compressed with {@link PageCodec}.
+ * Record and index pages are mostly padding, so the cache
+ * holds many more blocks than the same memory would as buffers,
+ * and a pin that misses the pool but hits the cache
+ * decompresses the page instead of reading it from disk.
+ * <p>
+ * A page is cached when its buffer is given another block,
+ * after any changes have been written, so a cached page
+ * always equals its disk block.
+ * Pages are cached and loaded while the partition of their
+ * block is locked, so the copies of a block cannot be
+ * cached out of order.
+ * The cache is exclusive: a page leaves it when it is read
+ * back into a buffer, and so a cached copy can never be
+ * older than the block on disk.
+ * Pages of temporary tables are not cached, since they are
+ * seldom read twice and their files are soon deleted,
+ * and neither are pages that do not compress.
+ * <p>
+ * The cache holds at most its capacity in bytes,
+ * and evicts its least recently cached pages first.
+ */
+class VictimCache {
+   private static final int ENTRY_OVERHEAD = 64; // bytes of map entry, block id and array header
+   private long capacity;
+   private long bytes = 0;
+   private long hits = 0, misses = 0, evictions = 0;
+   private LinkedHashMap<BlockId,byte[]> pages = new LinkedHashMap<>();
+   private ThreadLocal<byte[]> scratch = ThreadLocal.withInitial(() -> new byte[0]);
+
+   /**
+    * Creates a cache holding at most the specified number of bytes.
+    * @param capacity the size of the cache in bytes
+    */
+   VictimCache(long capacity) {
+      this.capacity = capacity;
+   }
+
+   /**
+    * Stores a compressed copy of the page,
+    * if it is small enough to be worth keeping.
+    * The page is compressed into the calling thread's
+    * scratch array before the cache is locked,
+    * so only the kept copy is allocated.
+    * @param blk the block the page belongs to
+    * @param page the block's contents
+    */
+   void put(BlockId blk, ByteBuffer page) {
+      int size = page.capacity();
+      byte[] buf = scratch.get();
+      if (buf.length < PageCodec.maxCompressedLength(size)) {
+         buf = new byte[PageCodec.maxCompressedLength(size)];
+         scratch.set(buf);
+      }
+      int len = PageCodec.compress(page, size, buf, 0);
+      if (len >= size)
+         return;
+      byte[] copy = Arrays.copyOf(buf, len);
+      synchronized (this) {
+         byte[] old = pages.put(blk, copy);
+         if (old != null)
+            bytes -= old.length + ENTRY_OVERHEAD;
+         bytes += len + ENTRY_OVERHEAD;
+         Iterator<byte[]> iter = pages.values().iterator();
+         while (bytes > capacity && iter.hasNext()) {
+            bytes -= iter.next().length + ENTRY_OVERHEAD;
+            iter.remove();
+            evictions++;
+         }
+      }
+   }
+
+   /**
+    * Removes the block's page from the cache, if it is there,
+    * and decompresses it into the specified page.
+    * @param blk the block to look up
+    * @param page the buffer that receives the contents
+    * @return true if the page was cached
+    */
+   boolean load(BlockId blk, ByteBuffer page) {
+      byte[] compressed;
+      synchronized (this) {
+         compressed = pages.remove(blk);
+         if (compressed == null) {
+            misses++;
+            return false;
+         }
+         hits++;
+         bytes -= compressed.length + ENTRY_OVERHEAD;
+      }
+      PageCodec.decompress(compressed, 0, compressed.length, page);
+      return true;
+   }
+
+   synchronized long hits() {
+      return hits;
+   }
+
+   synchronized long misses() {
+      return misses;
+   }
+
+   synchronized long evictions() {
+      return evictions;
+   }
+
+   synchronized long bytes() {
+      return bytes;
+   }
+
+   synchronized int size() {
+      return pages.size();
+   }
+
+   long capacity() {
+      return capacity;
+   }
+}
@@ -0,0 +1,96 @@
+package org.example.simpledb.buffer;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.example.simpledb.file.BlockId;
+import org.example.simpledb.file.FileMgr;
+import org.example.simpledb.file.Page;
+import org.example.simpledb.log.LogMgr;
+
+/**
+ * Pins and modifies blocks from many threads through a pool
+ * much smaller than the blocks in use, so that pages keep
+ * moving between the pool and the victim cache.
+ * Each thread owns its blocks and checks that it always reads
+ * back what it last wrote, whether the page came from a buffer,
+ * the cache, or the disk.
+ * At the end the cache must have been hit, the pool must be
+ * all available, and every block on disk must hold its last value.
+ */
+public class VictimCacheTest {
+   private static final int BLOCK_SIZE = 400;
+   private static final int THREADS = 8;
+   private static final int BLOCKS_PER_THREAD = 200;
+   private static final int OPS = 50000;
+
+   public static void main(String[] args) throws Exception {
+      File dir = Files.createTempDirectory("victimtest").toFile();
+      try {
+         FileMgr fm = new FileMgr(dir, BLOCK_SIZE);
+         LogMgr lm = new LogMgr(fm, "victimtest.log");
+         Page p = new Page(BLOCK_SIZE);
+         for (int i=0; i<THREADS*BLOCKS_PER_THREAD; i++) {
+            p.setInt(0, i);
+            fm.write(fm.append("victim.tbl"), p);
+         }
+         BufferMgr bm = new BufferMgr(fm, lm, 128);
+         AtomicBoolean ok = new AtomicBoolean(true);
+         int[][] values = new int[THREADS][BLOCKS_PER_THREAD];
+
+         Thread[] threads = new Thread[THREADS];
+         for (int t=0; t<THREADS; t++) {
+            int id = t;
+            threads[t] = new Thread(() -> {
+               Random rand = new Random(id);
+               try {
+                  for (int i=0; i<OPS; i++) {
+                     int k = rand.nextInt(BLOCKS_PER_THREAD);
+                     int blknum = id * BLOCKS_PER_THREAD + k;
+                     Buffer buff = bm.pin(new BlockId("victim.tbl", blknum));
+                     Page page = buff.contents();
+                     if (page.getInt(0) != blknum || page.getInt(8) != values[id][k])
+                        ok.set(false);
+                     if (rand.nextInt(3) == 0) {
+                        values[id][k]++;
+                        page.setInt(8, values[id][k]);
+                        buff.setModified(id + 1, -1);
+                     }
+                     bm.unpin(buff);
+                     if (i % 5000 == 0)
+                        bm.flushAll(id + 1);
+                  }
+               }
+               catch (BufferAbortException e) {
+                  ok.set(false);
+               }
+            });
+            threads[t].start();
+         }
+         for (Thread th : threads)
+            th.join();
+
+         BufferStats stats = bm.stats();
+         boolean consistent = ok.get() && stats.getVictimHits() > 0
+               && bm.available() == bm.size() && stats.getAborts() == 0;
+         bm.flushAll();
+         bm.shutdown();
+         for (int t=0; t<THREADS; t++)
+            for (int k=0; k<BLOCKS_PER_THREAD; k++) {
+               fm.read(new BlockId("victim.tbl", t * BLOCKS_PER_THREAD + k), p);
+               if (p.getInt(8) != values[t][k])
+                  consistent = false;
+            }
+         System.out.println("pins=" + (THREADS * OPS) + " misses=" + stats.getMisses()
+               + " victimHits=" + stats.getVictimHits()
+               + " victimEvictions=" + stats.getVictimEvictions());
+         System.out.println(consistent ? "victim cache consistent" : "VICTIM CACHE INCONSISTENT");
+      }
+      finally {
+         for (File f : dir.listFiles())
+            f.delete();
+         dir.delete();
+      }
+   }
+}
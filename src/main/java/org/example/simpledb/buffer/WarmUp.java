@@ -0,0 +1,126 @@
+package org.example.simpledb.buffer;
+
+import java.io.File;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import org.example.simpledb.file.BlockId;
+import org.example.simpledb.file.FileMgr;
+
+/**
+ * Reads back into the buffer pool the blocks that
+ * were buffered when the database was last checkpointed,
+ * so that a restarted server does not have to fault
+ * its working set in one random read at a time.
+ * <p>
+ * The blocks are read by a background thread in file and
+ * block order, with runs of consecutive blocks read together,
+ * and only into empty buffers: a block that a transaction
+ * has already read is left alone, and the warm-up stops
+ * when the pool has no empty buffer left.
+ * Blocks of files that no longer exist, or that are
+ * past the end of their file, are skipped.
+ * @see BufferMgr#prepareWarmUp()
+ */
+public class WarmUp implements Runnable {
+   public static int MAX_RUN = 32; // blocks read at once
+   private BufferMgr bm;
+   private FileMgr fm;
+   private List<BlockId> blocks;
+   private Thread thread = null;
+   private volatile int loaded = 0;
+   private volatile boolean done = false;
+
+   WarmUp(BufferMgr bm, FileMgr fm, List<BlockId> blocks) {
+      this.bm = bm;
+      this.fm = fm;
+      this.blocks = blocks;
+   }
+
+   /**
+    * Starts reading the blocks in the background.
+    */
+   public synchronized void start() {
+      if (thread != null)
+         return;
+      if (blocks.isEmpty()) {
+         done = true;
+         return;
+      }
+      thread = new Thread(this, "simpledb-warmup");
+      thread.setDaemon(true);
+      thread.start();
+   }
+
+   public void run() {
+      try {
+         List<BlockId> sorted = new ArrayList<>(blocks);
+         sorted.sort(Comparator.comparing(BlockId::fileName)
+                               .thenComparingInt(BlockId::number));
+         int i = 0;
+         while (i < sorted.size() && bm.freeBuffers() > 0) {
+            String filename = sorted.get(i).fileName();
+            int start = sorted.get(i).number();
+            int n = 1;
+            while (i + n < sorted.size() && n < MAX_RUN
+                  && sorted.get(i+n).fileName().equals(filename)
+                  && sorted.get(i+n).number() == start + n)
+               n++;
+            if (new File(fm.directory(), filename).exists())
+               for (CompletableFuture<Void> read : bm.warmRead(filename, start, n))
+                  try {
+                     read.join();
+                  }
+                  catch (RuntimeException e) {
+                     // the pin that needs the block reports the error
+                  }
+            i += n;
+            loaded = i;
+         }
+      }
+      catch (RuntimeException e) {
+         // a cold pool is still a correct pool
+      }
+      finally {
+         done = true;
+      }
+   }
+
+   /**
+    * Returns true while the blocks are being read.
+    * @return true if the warm-up has started and is not done
+    */
+   public boolean isActive() {
+      return thread != null && !done;
+   }
+
+   /**
+    * Returns true if the warm-up has read, or skipped,
+    * all the blocks it will read.
+    * @return true if the warm-up is over
+    */
+   public boolean isDone() {
+      return done;
+   }
+
+   /**
+    * Returns the number of blocks in the saved list.
+    * @return the number of blocks to read
+    */
+   public int blocksPlanned() {
+      return blocks.size();
+   }
+
+   /**
+    * Returns the number of blocks of the list handled so far,
+    * including those that were already buffered or skipped.
+    * @return the progress of the warm-up
+    */
+   public int blocksLoaded() {
+      return loaded;
+   }
+
+   public String toString() {
+      return "WarmUp|planned=" + blocksPlanned() + "|loaded=" + loaded
+            + "|" + (done ? "done" : isActive() ? "active" : "pending");
+   }
+}
@@ -0,0 +1,309 @@
+package org.example.simpledb.file;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A file manager that stores the blocks of table and index files
+ * compressed with {@link PageCodec}.
+ * The log and temporary tables are stored uncompressed.
+ * <p>
+ * A compressed file is a sequence of slots.
+ * Each slot holds the length of a compressed block followed
+ * by its bytes, and is rounded up to a multiple of {@link #SLOT_UNIT}
+ * so that a block that grows a little can be rewritten in place.
+ * A block that outgrows its slot moves to a new one.
+ * The block map, which gives the slot of each logical block,
+ * is kept in memory and saved in the file "<i>name</i>.map"
+ * when the file is forced; a block that has never been written
+ * has no slot and reads as zeros.
+ * Because of the map, {@link BlockId} users see ordinary
+ * consecutively numbered blocks.
+ * <p>
+ * A slot given up by a moved block is not reused until
+ * the map that no longer refers to it has been saved,
+ * so after a crash the saved map always refers to intact slots.
+ * A database must always be opened in the same storage mode.
+ * <p>
+ * Each thread reads and writes slots through its own scratch
+ * buffer, so that the I/O path allocates nothing.
+ */
+public class CompressedFileMgr extends FileMgr {
+   public static int SLOT_UNIT = 32;
+   static final String MAP_SUFFIX = ".map";
+   private Map<String,BlockMap> maps = new ConcurrentHashMap<>();
+   private byte[] zeros;
+   private ThreadLocal<ByteBuffer> slots = ThreadLocal.withInitial(() -> ByteBuffer.allocate(0));
+
+   public CompressedFileMgr(File dbDirectory, int blocksize, int extentsize) {
+      super(dbDirectory, blocksize, extentsize);
+      zeros = new byte[blocksize];
+   }
+
+   public int length(String filename) {
+      if (!isCompressed(filename))
+         return super.length(filename);
+      BlockMap m = blockMap(filename);
+      synchronized (m) {
+         return m.count;
+      }
+   }
+
+   /**
+    * Appends a block to a compressed file.
+    * The new block reads as zeros, and it needs no disk space
+    * until it is written.
+    */
+   public BlockId append(String filename) {
+      if (!isCompressed(filename))
+         return super.append(filename);
+      BlockMap m = blockMap(filename);
+      synchronized (m) {
+         int newblknum = m.count;
+         m.extendTo(newblknum + 1);
+         ioStats().recordAppend(filename);
+         needsForce(filename);
+         return new BlockId(filename, newblknum);
+      }
+   }
+
+   void readBlock(BlockId blk, ByteBuffer bb) throws IOException {
+      if (!isCompressed(blk.fileName())) {
+         super.readBlock(blk, bb);
+         return;
+      }
+      BlockMap m = blockMap(blk.fileName());
+      long offset;
+      int capacity;
+      synchronized (m) {
+         boolean written = blk.number() < m.count && m.offsets[blk.number()] >= 0;
+         offset = written ? m.offsets[blk.number()] : -1;
+         capacity = written ? m.capacities[blk.number()] : 0;
+      }
+      if (offset < 0) {
+         bb.put(0, zeros);
+         return;
+      }
+      ByteBuffer slot = scratchSlot(capacity);
+      try (FileHandleCache.Handle h = openFile(blk.fileName())) {
+         readFully(h.channel(), slot, offset);
+      }
+      int len = slot.getInt(0);
+      PageCodec.decompress(slot.array(), Integer.BYTES, len, bb);
+   }
+
+   void readBlocks(BlockId first, ByteBuffer[] bbs) throws IOException {
+      if (!isCompressed(first.fileName())) {
+         super.readBlocks(first, bbs);
+         return;
+      }
+      // compressed blocks are not contiguous on disk
+      for (int i=0; i<bbs.length; i++)
+         readBlock(new BlockId(first.fileName(), first.number() + i), bbs[i]);
+   }
+
+   void writeBlocks(BlockId first, ByteBuffer[] bbs) throws IOException {
+      if (!isCompressed(first.fileName())) {
+         super.writeBlocks(first, bbs);
+         return;
+      }
+      for (int i=0; i<bbs.length; i++)
+         writeBlock(new BlockId(first.fileName(), first.number() + i), bbs[i]);
+   }
+
+   void writeBlock(BlockId blk, ByteBuffer bb) throws IOException {
+      if (!isCompressed(blk.fileName())) {
+         super.writeBlock(blk, bb);
+         return;
+      }
+      ByteBuffer slot = scratchSlot(Integer.BYTES + PageCodec.maxCompressedLength(blockSize()));
+      int len = PageCodec.compress(bb, blockSize(), slot.array(), Integer.BYTES);
+      slot.limit(Integer.BYTES + len);
+      slot.putInt(0, len);
+      BlockMap m = blockMap(blk.fileName());
+      long offset;
+      synchronized (m) {
+         offset = m.slotFor(blk.number(), Integer.BYTES + len);
+      }
+      try (FileHandleCache.Handle h = openFile(blk.fileName())) {
+         writeFully(h.channel(), slot, offset);
+      }
+   }
+
+   /**
+    * Forces the slots of a compressed file, and then saves its map,
+    * so that the saved map never refers to unwritten slots.
+    */
+   void forceFile(String filename) throws IOException {
+      super.forceFile(filename);
+      if (isCompressed(filename))
+         blockMap(filename).save();
+   }
+
+   public void delete(String filename) {
+      maps.remove(filename);
+      new File(directory(), filename + MAP_SUFFIX).delete();
+      super.delete(filename);
+   }
+
+   /**
+    * Returns the calling thread's scratch buffer,
+    * cleared and limited to the specified size.
+    */
+   private ByteBuffer scratchSlot(int size) {
+      ByteBuffer slot = slots.get();
+      if (slot.capacity() < size) {
+         slot = ByteBuffer.allocate(size);
+         slots.set(slot);
+      }
+      slot.clear().limit(size);
+      return slot;
+   }
+
+   private boolean isCompressed(String filename) {
+      FileType type = FileType.of(filename);
+      return type == FileType.TABLE || type == FileType.INDEX;
+   }
+
+   private BlockMap blockMap(String filename) {
+      return maps.computeIfAbsent(filename, BlockMap::new);
+   }
+
+   /**
+    * The slots of the blocks of a compressed file.
+    * The offset of a block that has never been written is -1.
+    */
+   private class BlockMap {
+      private String filename;
+      private int count = 0;
+      private long[] offsets = new long[16];
+      private int[] capacities = new int[16];
+      private long end = 0;
+      private boolean dirty = false;
+      private TreeMap<Integer,Deque<Long>> free = new TreeMap<>();
+      private List<long[]> released = new ArrayList<>();
+
+      BlockMap(String filename) {
+         this.filename = filename;
+         File mapfile = new File(directory(), filename + MAP_SUFFIX);
+         if (mapfile.exists())
+            load(mapfile);
+      }
+
+      void extendTo(int newcount) {
+         if (newcount <= count)
+            return;
+         if (newcount > offsets.length) {
+            int n = Math.max(newcount, 2 * offsets.length);
+            offsets = Arrays.copyOf(offsets, n);
+            capacities = Arrays.copyOf(capacities, n);
+         }
+         Arrays.fill(offsets, count, newcount, -1);
+         Arrays.fill(capacities, count, newcount, 0);
+         count = newcount;
+         dirty = true;
+      }
+
+      /**
+       * Returns the offset of a slot that can hold the specified
+       * number of bytes for the block, moving the block to a new
+       * slot if its current one is too small.
+       */
+      long slotFor(int blknum, int size) {
+         extendTo(blknum + 1);
+         if (offsets[blknum] >= 0 && size <= capacities[blknum])
+            return offsets[blknum];
+         if (offsets[blknum] >= 0)
+            released.add(new long[] {offsets[blknum], capacities[blknum]});
+         int needed = (size + SLOT_UNIT - 1) / SLOT_UNIT * SLOT_UNIT;
+         Map.Entry<Integer,Deque<Long>> e = free.ceilingEntry(needed);
+         if (e != null) {
+            offsets[blknum] = e.getValue().poll();
+            capacities[blknum] = e.getKey();
+            if (e.getValue().isEmpty())
+               free.remove(e.getKey());
+         }
+         else {
+            offsets[blknum] = end;
+            capacities[blknum] = needed;
+            end += needed;
+         }
+         dirty = true;
+         return offsets[blknum];
+      }
+
+      /**
+       * Writes the map to a new file, forces it, and renames it
+       * over the old map. Slots released before the map was
+       * copied become free for reuse.
+       */
+      void save() throws IOException {
+         ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+         List<long[]> nowfree;
+         synchronized (this) {
+            if (!dirty)
+               return;
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeInt(count);
+            for (int i=0; i<count; i++) {
+               out.writeLong(offsets[i]);
+               out.writeInt(capacities[i]);
+            }
+            dirty = false;
+            nowfree = released;
+            released = new ArrayList<>();
+         }
+         File mapfile = new File(directory(), filename + MAP_SUFFIX);
+         File newfile = new File(directory(), filename + MAP_SUFFIX + ".new");
+         try (FileOutputStream out = new FileOutputStream(newfile)) {
+            bytes.writeTo(out);
+            out.getChannel().force(true);
+         }
+         Files.move(newfile.toPath(), mapfile.toPath(),
+               StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+         synchronized (this) {
+            for (long[] slot : nowfree)
+               addFree(slot[0], (int) slot[1]);
+         }
+      }
+
+      /**
+       * Reads a saved map. The gaps between the slots that it
+       * refers to are slots that were given up before the map
+       * was saved, and they become free.
+       */
+      private void load(File mapfile) {
+         try (DataInputStream in = new DataInputStream(
+               new BufferedInputStream(new FileInputStream(mapfile)))) {
+            extendTo(in.readInt());
+            for (int i=0; i<count; i++) {
+               offsets[i] = in.readLong();
+               capacities[i] = in.readInt();
+            }
+         }
+         catch (IOException e) {
+            throw new RuntimeException("cannot read " + mapfile.getName());
+         }
+         Integer[] order = new Integer[count];
+         for (int i=0; i<count; i++)
+            order[i] = i;
+         Arrays.sort(order, Comparator.comparingLong(i -> offsets[i]));
+         for (int i : order) {
+            if (offsets[i] < 0)
+               continue;
+            if (offsets[i] > end)
+               addFree(end, (int) (offsets[i] - end));
+            end = offsets[i] + capacities[i];
+         }
+         dirty = false;
+      }
+
+      private void addFree(long offset, int capacity) {
+         free.computeIfAbsent(capacity, k -> new ArrayDeque<>()).add(offset);
+      }
+   }
+}
@@ -0,0 +1,187 @@
+package org.example.simpledb.file;
+
+import java.io.*;
+import java.nio.channels.FileChannel;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A bounded cache of open database files.
+ * A file is opened when it is first accessed,
+ * and when more than the maximum number of files are open,
+ * the least recently used file that is not in use is closed.
+ * It is reopened the next time that it is accessed.
+ * <p>
+ * A caller holds a {@link Handle} only while performing I/O,
+ * and a file is never closed while a handle to it is held.
+ * Looking up an open file does not lock the cache,
+ * so threads using open files do not wait on each other.
+ */
+class FileHandleCache {
+   private File dbDirectory;
+   private int capacity;
+   private IOStats stats;
+   private Map<String,Handle> handles = new ConcurrentHashMap<>();
+   private AtomicLong clock = new AtomicLong();
+
+   FileHandleCache(File dbDirectory, int capacity, IOStats stats) {
+      this.dbDirectory = dbDirectory;
+      this.capacity = capacity;
+      this.stats = stats;
+   }
+
+   /**
+    * Returns a handle to the specified file, opening the file if necessary.
+    * The handle must be closed when the caller's I/O is done.
+    * @param filename the name of the file
+    * @return a handle to the open file
+    */
+   Handle open(String filename) throws IOException {
+      while (true) {
+         Handle h = handles.get(filename);
+         if (h == null)
+            return openMissing(filename);
+         if (h.pin()) {
+            stats.recordHandleHit();
+            return h;
+         }
+         // the file was just closed; forget it and open it again
+         handles.remove(filename, h);
+      }
+   }
+
+   /**
+    * Closes the specified file and forgets it,
+    * as when the file is being deleted.
+    * If another thread is still using the file,
+    * the file is closed when that thread releases its handle.
+    * @param filename the name of the file
+    */
+   void remove(String filename) throws IOException {
+      Handle h = handles.remove(filename);
+      if (h != null && h.markRemoved())
+         h.file.close();
+   }
+
+   /**
+    * Closes every open file and forgets it.
+    * A file still in use is closed when its handle is released.
+    */
+   void closeAll() throws IOException {
+      for (String filename : handles.keySet())
+         remove(filename);
+   }
+
+   int openCount() {
+      return handles.size();
+   }
+
+   private synchronized Handle openMissing(String filename) throws IOException {
+      Handle h = handles.get(filename);
+      if (h != null && h.pin()) {
+         stats.recordHandleHit();
+         return h;
+      }
+      stats.recordHandleMiss();
+      h = new Handle(new RandomAccessFile(new File(dbDirectory, filename), "rw"));
+      h.pin();
+      handles.put(filename, h);
+      while (handles.size() > capacity)
+         if (!closeLeastRecentlyUsed())
+            break; // every open file is in use
+      return h;
+   }
+
+   /**
+    * Closes the least recently used file that is not in use.
+    * The scan is linear, but it happens only when a file is opened.
+    * @return false if every open file is in use
+    */
+   private boolean closeLeastRecentlyUsed() throws IOException {
+      while (true) {
+         Map.Entry<String,Handle> victim = null;
+         for (Map.Entry<String,Handle> e : handles.entrySet())
+            if (!e.getValue().inUse()
+                  && (victim == null || e.getValue().lastUsed < victim.getValue().lastUsed))
+               victim = e;
+         if (victim == null)
+            return false;
+         Handle h = victim.getValue();
+         if (h.markClosed()) {
+            handles.remove(victim.getKey(), h);
+            h.file.close();
+            stats.recordHandleEviction();
+            return true;
+         }
+         // the file was pinned during the scan; look again
+      }
+   }
+
+   /**
+    * A claim on an open file.
+    * Closing the handle releases the claim; the file stays open,
+    * unless it was removed while the claim was held.
+    */
+   class Handle implements AutoCloseable {
+      private RandomAccessFile file;
+      private int pins = 0;
+      private boolean closed = false;
+      private boolean removePending = false;
+      private volatile long lastUsed;
+
+      private Handle(RandomAccessFile file) {
+         this.file = file;
+      }
+
+      RandomAccessFile file() {
+         return file;
+      }
+
+      FileChannel channel() {
+         return file.getChannel();
+      }
+
+      public synchronized void close() throws IOException {
+         pins--;
+         if (pins == 0 && removePending) {
+            removePending = false;
+            file.close();
+         }
+      }
+
+      private synchronized boolean pin() {
+         if (closed)
+            return false;
+         pins++;
+         lastUsed = clock.incrementAndGet();
+         return true;
+      }
+
+      private synchronized boolean inUse() {
+         return pins > 0;
+      }
+
+      private synchronized boolean markClosed() {
+         if (pins > 0 || closed)
+            return false;
+         closed = true;
+         return true;
+      }
+
+      /**
+       * Marks the handle closed even if it is in use,
+       * in which case the last claim to be released closes the file.
+       * @return true if the caller should close the file now
+       */
+      private synchronized boolean markRemoved() {
+         if (closed)
+            return false;
+         closed = true;
+         if (pins == 0)
+            return true;
+         removePending = true;
+         return false;
+      }
+   }
+}
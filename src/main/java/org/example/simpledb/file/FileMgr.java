@@ -1,19 +1,71 @@
 package org.example.simpledb.file;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 
+/**
+ * The file manager, which reads and writes blocks of the
+ * database files. Blocks are transferred with positional
+ * channel I/O, so threads that access different blocks
+ * (or different files) never wait on each other.
+ * Only appends to the same file are serialized,
+ * by synchronizing on that file's size.
+ * At most {@link #MAX_OPEN_FILES} files are kept open;
+ * see {@link FileHandleCache}.
+ * <p>
+ * Files grow in extents of several blocks.
+ * The logical length of each file is kept in memory, and
+ * the lengths of table and index files are saved in the file
+ * {@value #SIZES_FILE} whenever the files are forced.
+ * When a file is first used, any blocks past its saved length are kept
+ * as preallocated space: besides zeroed blocks, they may hold pages
+ * of transactions that did not commit before a crash,
+ * which recovery must read back in order to undo them.
+ * Reading a block past the end of a file gives a zeroed page.
+ * <p>
+ * Writes are not synchronous. The file manager remembers
+ * which files have been written since they were last forced,
+ * and makes them durable only when asked to, at the force points
+ * of the log and buffer managers. Temporary tables are never forced.
+ */
 public class FileMgr {
    private File dbDirectory;
    private int blocksize;
    private boolean isNew;
-   private int readCount = 0;
-   private int writeCount = 0;
-   private Map<String,RandomAccessFile> openFiles = new HashMap<>();
+   private IOStats stats = new IOStats();
+   public static int MAX_OPEN_FILES = 128;
+   private FileHandleCache openFiles;
+   private Set<String> unforced = ConcurrentHashMap.newKeySet();
+   private Map<String,Object> forceLocks = new ConcurrentHashMap<>();
+   static final String SIZES_FILE = "simpledb.eof";
+   private int extentsize;
+   private ByteBuffer zeros;
+   private Map<String,FileSize> sizes = new ConcurrentHashMap<>();
+   private Properties savedSizes = new Properties();
+   private volatile boolean sizesChanged = false;
 
    public FileMgr(File dbDirectory, int blocksize) {
+      this(dbDirectory, blocksize, 1);
+   }
+
+   /**
+    * Creates a file manager whose files grow
+    * by the specified number of blocks at a time.
+    * @param dbDirectory the database directory
+    * @param blocksize the block size
+    * @param extentsize the number of blocks in an extent
+    */
+   public FileMgr(File dbDirectory, int blocksize, int extentsize) {
       this.dbDirectory = dbDirectory;
       this.blocksize = blocksize;
+      this.extentsize = extentsize;
+      zeros = ByteBuffer.allocateDirect(extentsize * blocksize);
+      openFiles = new FileHandleCache(dbDirectory, MAX_OPEN_FILES, stats);
       isNew = !dbDirectory.exists();
 
       // create the directory if the database is new
@@ -24,51 +76,187 @@ public class FileMgr {
       for (String filename : dbDirectory.list())
          if (filename.startsWith("temp"))
          		new File(dbDirectory, filename).delete();
+
+      File sizesfile = new File(dbDirectory, SIZES_FILE);
+      if (sizesfile.exists()) {
+         try (InputStream in = new FileInputStream(sizesfile)) {
+            savedSizes.load(in);
+         }
+         catch (IOException e) {
+            throw new RuntimeException("cannot read " + SIZES_FILE);
+         }
+      }
    }
 
-   public synchronized void read(BlockId blk, Page p) {
+   public void read(BlockId blk, Page p) {
       try {
-         RandomAccessFile f = getFile(blk.fileName());
-         f.seek(blk.number() * blocksize);
-         f.getChannel().read(p.contents());
-         readCount++;
+         long start = System.nanoTime();
+         readBlock(blk, p.contents());
+         stats.recordRead(blk.fileName(), 1, blocksize, System.nanoTime() - start);
       }
       catch (IOException e) {
          throw new RuntimeException("cannot read block " + blk);
       }
    }
 
-   public synchronized void write(BlockId blk, Page p) {
+   /**
+    * Reads consecutive blocks of a file into the specified pages
+    * with a single vectored read.
+    * The first page receives the specified block,
+    * the second page receives the block after it, and so on.
+    * @param first the first block of the range
+    * @param pages one page for each block of the range
+    */
+   public void read(BlockId first, Page[] pages) {
       try {
-         RandomAccessFile f = getFile(blk.fileName());
-         f.seek(blk.number() * blocksize);
-         f.getChannel().write(p.contents());
-         writeCount++;
+         ByteBuffer[] bbs = new ByteBuffer[pages.length];
+         for (int i=0; i<pages.length; i++)
+            bbs[i] = pages[i].contents();
+         long start = System.nanoTime();
+         readBlocks(first, bbs);
+         stats.recordRead(first.fileName(), pages.length,
+               (long) pages.length * blocksize, System.nanoTime() - start);
+      }
+      catch (IOException e) {
+         throw new RuntimeException("cannot read " + pages.length + " blocks from " + first);
+      }
+   }
+
+   public void write(BlockId blk, Page p) {
+      try {
+         long start = System.nanoTime();
+         writeBlock(blk, p.contents());
+         stats.recordWrite(blk.fileName(), blocksize, System.nanoTime() - start);
+         needsForce(blk.fileName());
       }
       catch (IOException e) {
          throw new RuntimeException("cannot write block" + blk);
       }
    }
 
-   public synchronized BlockId append(String filename) {
-      int newblknum = length(filename);
-      BlockId blk = new BlockId(filename, newblknum);
-      byte[] b = new byte[blocksize];
+   /**
+    * Writes the specified pages to consecutive blocks of a file
+    * with a single gathering write.
+    * The blocks may lie past the end of the file,
+    * which then grows to include them.
+    * @param first the first block of the range
+    * @param pages one page for each block of the range
+    */
+   public void write(BlockId first, Page[] pages) {
       try {
-         RandomAccessFile f = getFile(blk.fileName());
-         f.seek(blk.number() * blocksize);
-         f.write(b);
+         ByteBuffer[] bbs = new ByteBuffer[pages.length];
+         for (int i=0; i<pages.length; i++)
+            bbs[i] = pages[i].contents();
+         long start = System.nanoTime();
+         writeBlocks(first, bbs);
+         stats.recordWrite(first.fileName(), (long) pages.length * blocksize,
+               System.nanoTime() - start);
+         needsForce(first.fileName());
       }
       catch (IOException e) {
-         throw new RuntimeException("cannot append block" + blk);
+         throw new RuntimeException("cannot write " + pages.length + " blocks to " + first);
       }
-      return blk;
    }
 
+   /**
+    * Appends a zeroed block to the end of the specified file.
+    * If the file has no preallocated blocks left,
+    * it first grows by a whole extent of zeroed blocks.
+    * Concurrent appends to the same file are serialized
+    * so that each caller gets a distinct block;
+    * appends to different files proceed in parallel.
+    * @param filename the name of the file
+    * @return a reference to the new block
+    */
+   public BlockId append(String filename) {
+      try {
+         FileSize sz = size(filename);
+         stats.recordAppend(filename);
+         synchronized (sz) {
+            int newblknum = sz.logical;
+            extendTo(filename, sz, newblknum + 1);
+            return new BlockId(filename, newblknum);
+         }
+      }
+      catch (IOException e) {
+         throw new RuntimeException("cannot append block to " + filename);
+      }
+   }
+
+   /**
+    * Forces all writes to the specified file onto the disk.
+    * Forces of the same file are serialized, so that a thread
+    * that finds the file already being forced by another thread
+    * returns only once that force has finished.
+    * @param filename the name of the file
+    */
+   public void force(String filename) {
+      synchronized (forceLocks.computeIfAbsent(filename, f -> new Object())) {
+         if (unforced.remove(filename)) {
+            try {
+               forceFile(filename);
+            }
+            catch (IOException e) {
+               throw new RuntimeException("cannot force " + filename);
+            }
+         }
+      }
+   }
+
+   /**
+    * Forces every file that has been written
+    * since it was last forced.
+    */
+   public void forceAll() {
+      for (String filename : unforced)
+         force(filename);
+      if (sizesChanged)
+         saveSizes();
+   }
+
+   /**
+    * Forces every file, and then closes the open files.
+    * A file that is accessed afterwards is opened again.
+    */
+   public void close() {
+      forceAll();
+      try {
+         openFiles.closeAll();
+      }
+      catch (IOException e) {
+         throw new RuntimeException("cannot close the files of " + dbDirectory);
+      }
+   }
+
+   /**
+    * Deletes the specified file, which must be a temporary table
+    * that is no longer in use, and closes it if it is open.
+    * @param filename the name of the file
+    */
+   public void delete(String filename) {
+      try {
+         openFiles.remove(filename);
+         unforced.remove(filename);
+         forceLocks.remove(filename);
+         sizes.remove(filename);
+         stats.forget(filename);
+         Files.deleteIfExists(new File(dbDirectory, filename).toPath());
+      }
+      catch (IOException e) {
+         throw new RuntimeException("cannot delete " + filename);
+      }
+   }
+
+   /**
+    * Returns the number of blocks in the specified file.
+    * The length is kept in memory,
+    * and so no system call is needed.
+    * @param filename the name of the file
+    * @return the number of blocks in the file
+    */
    public int length(String filename) {
       try {
-         RandomAccessFile f = getFile(filename);
-         return (int)(f.length() / blocksize);
+         return size(filename).logical;
       }
       catch (IOException e) {
          throw new RuntimeException("cannot access " + filename);
@@ -78,28 +266,270 @@ public class FileMgr {
    public boolean isNew() {
       return isNew;
    }
-   
+
    public int blockSize() {
       return blocksize;
    }
 
-   private RandomAccessFile getFile(String filename) throws IOException {
-      RandomAccessFile f = openFiles.get(filename);
-      if (f == null) {
-         File dbTable = new File(dbDirectory, filename);
-         f = new RandomAccessFile(dbTable, "rws");
-         openFiles.put(filename, f);
+   public File directory() {
+      return dbDirectory;
+   }
+
+   /**
+    * Transfers the specified block into the buffer.
+    * Subclasses that store blocks differently override
+    * this method and {@link #writeBlock}.
+    */
+   void readBlock(BlockId blk, ByteBuffer bb) throws IOException {
+      try (FileHandleCache.Handle h = openFiles.open(blk.fileName())) {
+         readFully(h.channel(), bb, (long) blk.number() * blocksize);
+      }
+   }
+
+   /**
+    * Transfers consecutive blocks into the buffers.
+    * A scattering read uses the channel's file pointer,
+    * so it locks the open file while positioning and reading.
+    */
+   void readBlocks(BlockId first, ByteBuffer[] bbs) throws IOException {
+      ByteBuffer last = bbs[bbs.length-1];
+      try (FileHandleCache.Handle h = openFiles.open(first.fileName())) {
+         synchronized (h.file()) {
+            FileChannel fc = h.channel();
+            fc.position((long) first.number() * blocksize);
+            while (last.hasRemaining())
+               if (fc.read(bbs) < 0) {
+                  for (ByteBuffer bb : bbs)
+                     zeroRemaining(bb);
+                  return;
+               }
+         }
+      }
+   }
+
+   void writeBlock(BlockId blk, ByteBuffer bb) throws IOException {
+      extendPast(blk);
+      try (FileHandleCache.Handle h = openFiles.open(blk.fileName())) {
+         writeFully(h.channel(), bb, (long) blk.number() * blocksize);
       }
-      return f;
    }
-   public int getReadCount() {
-      return readCount;
+
+   /**
+    * Transfers the buffers to consecutive blocks.
+    * Like a scattering read, a gathering write uses the channel's
+    * file pointer, and so it locks the open file.
+    * Blocks past the end of the file are not zeroed first,
+    * since the write itself extends the file.
+    */
+   void writeBlocks(BlockId first, ByteBuffer[] bbs) throws IOException {
+      ByteBuffer last = bbs[bbs.length-1];
+      try (FileHandleCache.Handle h = openFiles.open(first.fileName())) {
+         synchronized (h.file()) {
+            FileChannel fc = h.channel();
+            fc.position((long) first.number() * blocksize);
+            while (last.hasRemaining())
+               fc.write(bbs);
+         }
+      }
+      wrotePast(new BlockId(first.fileName(), first.number() + bbs.length - 1));
    }
-   public int getWriteCount() {
-      return writeCount;
+
+   /**
+    * Makes sure that the file's logical length includes the
+    * specified block, since writing past the end of a file
+    * extends it.
+    */
+   void extendPast(BlockId blk) throws IOException {
+      FileSize sz = size(blk.fileName());
+      if (blk.number() >= sz.logical)
+         extendTo(blk.fileName(), sz, blk.number() + 1);
    }
-   public void resetCounts() {
-      readCount = 0;
-      writeCount = 0;
+
+   /**
+    * Makes sure that the file's logical length includes the
+    * specified block, which has just been written.
+    */
+   void wrotePast(BlockId blk) throws IOException {
+      FileSize sz = size(blk.fileName());
+      synchronized (sz) {
+         int newlength = blk.number() + 1;
+         if (newlength > sz.allocated)
+            sz.allocated = newlength;
+         if (newlength > sz.logical) {
+            sz.logical = newlength;
+            FileType type = FileType.of(blk.fileName());
+            if (type == FileType.TABLE || type == FileType.INDEX)
+               sizesChanged = true;
+         }
+      }
+   }
+
+   void forceFile(String filename) throws IOException {
+      try (FileHandleCache.Handle h = openFiles.open(filename)) {
+         h.channel().force(false);
+      }
+   }
+
+   void needsForce(String filename) {
+      if (FileType.of(filename) != FileType.TEMP)
+         unforced.add(filename);
+   }
+
+   /**
+    * Returns a handle to the specified file, which is opened if necessary.
+    * The caller must close the handle when its I/O is done,
+    * so that the file can be closed if too many files are open.
+    */
+   FileHandleCache.Handle openFile(String filename) throws IOException {
+      return openFiles.open(filename);
+   }
+
+   private FileSize size(String filename) throws IOException {
+      FileSize sz = sizes.get(filename);
+      if (sz == null) {
+         synchronized (sizes) {
+            sz = sizes.get(filename);
+            if (sz == null) {
+               try (FileHandleCache.Handle h = openFiles.open(filename)) {
+                  sz = initialSize(filename, h.file());
+               }
+               sizes.put(filename, sz);
+            }
+         }
+      }
+      return sz;
+   }
+
+   /**
+    * Determines the length of a file when it is first used.
+    * If a length was saved for the file, any blocks beyond it
+    * are treated as preallocated. They are not truncated,
+    * since after a crash they can hold pages written by
+    * uncommitted transactions, which the log still refers to.
+    */
+   private FileSize initialSize(String filename, RandomAccessFile f) throws IOException {
+      int physical = (int)(f.length() / blocksize);
+      int logical = physical;
+      String saved = savedSizes.getProperty(filename);
+      if (saved != null && Integer.parseInt(saved) < physical)
+         logical = Integer.parseInt(saved);
+      return new FileSize(logical, physical);
+   }
+
+   /**
+    * Makes the logical length of the file at least the specified
+    * number of blocks, preallocating another extent of
+    * zeroed blocks if necessary.
+    * The log file grows one block at a time,
+    * since its length is never saved.
+    */
+   private void extendTo(String filename, FileSize sz, int newlength) throws IOException {
+      synchronized (sz) {
+         if (newlength <= sz.logical)
+            return;
+         if (newlength > sz.allocated) {
+            FileType type = FileType.of(filename);
+            int extent = (type == FileType.LOG) ? 1 : extentsize;
+            int newallocated = Math.max(newlength, sz.allocated + extent);
+            long pos = (long) sz.allocated * blocksize;
+            long end = (long) newallocated * blocksize;
+            try (FileHandleCache.Handle h = openFiles.open(filename)) {
+               while (pos < end) {
+                  ByteBuffer b = zeros.duplicate();
+                  b.limit((int) Math.min(b.capacity(), end - pos));
+                  writeFully(h.channel(), b, pos);
+                  pos += b.limit();
+               }
+            }
+            sz.allocated = newallocated;
+            needsForce(filename);
+         }
+         sz.logical = newlength;
+         FileType type = FileType.of(filename);
+         if (type == FileType.TABLE || type == FileType.INDEX)
+            sizesChanged = true;
+      }
+   }
+
+   /**
+    * Saves the logical lengths of the table and index files.
+    * The sizes are written to a new file, which is forced
+    * and then renamed over the old one.
+    */
+   private synchronized void saveSizes() {
+      sizesChanged = false;
+      for (Map.Entry<String,FileSize> e : sizes.entrySet()) {
+         FileType type = FileType.of(e.getKey());
+         if (type == FileType.TABLE || type == FileType.INDEX)
+            savedSizes.setProperty(e.getKey(), Integer.toString(e.getValue().logical));
+      }
+      File sizesfile = new File(dbDirectory, SIZES_FILE);
+      File newfile = new File(dbDirectory, SIZES_FILE + ".new");
+      try {
+         try (FileOutputStream out = new FileOutputStream(newfile)) {
+            savedSizes.store(out, null);
+            out.getChannel().force(true);
+         }
+         Files.move(newfile.toPath(), sizesfile.toPath(),
+               StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+      }
+      catch (IOException e) {
+         throw new RuntimeException("cannot write " + SIZES_FILE);
+      }
+   }
+
+   /**
+    * Reads from the specified position until the buffer is full
+    * or the end of the file is reached.
+    * A positional read does not move the channel's file pointer,
+    * and so it is safe to perform concurrently with other reads and writes.
+    */
+   static void readFully(FileChannel fc, ByteBuffer bb, long pos) throws IOException {
+      while (bb.hasRemaining()) {
+         int n = fc.read(bb, pos);
+         if (n < 0) {
+            zeroRemaining(bb);
+            return;
+         }
+         pos += n;
+      }
+   }
+
+   /**
+    * Clears the part of the buffer that a read past
+    * the end of the file did not fill, so that the page
+    * does not keep the contents of an earlier block.
+    */
+   static void zeroRemaining(ByteBuffer bb) {
+      while (bb.hasRemaining())
+         bb.put((byte) 0);
+   }
+
+   static void writeFully(FileChannel fc, ByteBuffer bb, long pos) throws IOException {
+      while (bb.hasRemaining())
+         pos += fc.write(bb, pos);
+   }
+
+   /**
+    * The length of a file, in blocks.
+    * The logical length is the number of blocks in use;
+    * the allocated length also counts the preallocated blocks.
+    */
+   private static class FileSize {
+      volatile int logical;
+      int allocated;
+
+      FileSize(int logical, int allocated) {
+         this.logical = logical;
+         this.allocated = allocated;
+      }
+   }
+
+   /**
+    * Returns the I/O statistics of the file manager.
+    * @return the statistics of every file
+    */
+   public IOStats ioStats() {
+      return stats;
    }
 }
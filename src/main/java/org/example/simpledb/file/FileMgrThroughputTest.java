@@ -0,0 +1,106 @@
+package org.example.simpledb.file;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Random;
+
+/**
+ * Measures block I/O throughput when several threads
+ * read and write different files at the same time.
+ * The positional-I/O FileMgr is compared against a variant that
+ * serializes every operation on one monitor, which is how the
+ * file manager used to behave.
+ * The files are created in a temporary directory,
+ * which is deleted at the end.
+ */
+public class FileMgrThroughputTest {
+   private static final int BLOCK_SIZE = 400;
+   private static final int BLOCKS_PER_FILE = 256;
+   private static final int OPS_PER_THREAD = 20000;
+
+   private static File root;
+
+   public static void main(String[] args) throws Exception {
+      int maxthreads = (args.length == 0) ? 8 : Integer.parseInt(args[0]);
+      root = Files.createTempDirectory("tputtest").toFile();
+      try {
+         for (int nthreads=1; nthreads<=maxthreads; nthreads*=2) {
+            double serial   = run(new MonitorFileMgr(dir("serial" + nthreads), BLOCK_SIZE), nthreads);
+            double parallel = run(new FileMgr(dir("parallel" + nthreads), BLOCK_SIZE), nthreads);
+            System.out.printf("threads=%d  monitor=%.0f ops/s  positional=%.0f ops/s  speedup=%.2f%n",
+                  nthreads, serial, parallel, parallel / serial);
+         }
+      }
+      finally {
+         delete(root);
+      }
+   }
+
+   private static double run(FileMgr fm, int nthreads) throws InterruptedException {
+      for (int t=0; t<nthreads; t++)
+         for (int i=0; i<BLOCKS_PER_FILE; i++)
+            fm.append("tput" + t);
+
+      Thread[] threads = new Thread[nthreads];
+      for (int t=0; t<nthreads; t++) {
+         String filename = "tput" + t;
+         threads[t] = new Thread(() -> workload(fm, filename));
+      }
+      long start = System.nanoTime();
+      for (Thread th : threads)
+         th.start();
+      for (Thread th : threads)
+         th.join();
+      double secs = (System.nanoTime() - start) / 1e9;
+      return nthreads * OPS_PER_THREAD / secs;
+   }
+
+   // Each thread works on its own file: nine reads for every write.
+   private static void workload(FileMgr fm, String filename) {
+      Random rand = new Random(filename.hashCode());
+      Page p = new Page(fm.blockSize());
+      for (int i=0; i<OPS_PER_THREAD; i++) {
+         BlockId blk = new BlockId(filename, rand.nextInt(BLOCKS_PER_FILE));
+         if (i % 10 == 0) {
+            p.setInt(0, i);
+            fm.write(blk, p);
+         }
+         else
+            fm.read(blk, p);
+      }
+   }
+
+   private static File dir(String name) {
+      return new File(root, name);
+   }
+
+   private static void delete(File f) {
+      File[] children = f.listFiles();
+      if (children != null)
+         for (File child : children)
+            delete(child);
+      f.delete();
+   }
+
+   /**
+    * A file manager in which every operation holds a single
+    * shared monitor, as in the original implementation.
+    */
+   static class MonitorFileMgr extends FileMgr {
+      MonitorFileMgr(File dbDirectory, int blocksize) {
+         super(dbDirectory, blocksize);
+      }
+
+      public synchronized void read(BlockId blk, Page p) {
+         super.read(blk, p);
+      }
+
+      public synchronized void write(BlockId blk, Page p) {
+         super.write(blk, p);
+      }
+
+      public synchronized BlockId append(String filename) {
+         return super.append(filename);
+      }
+   }
+}
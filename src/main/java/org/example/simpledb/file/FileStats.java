@@ -0,0 +1,114 @@
+package org.example.simpledb.file;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The I/O statistics of a file, or of a class of files.
+ * Byte counts are of block contents, which for a compressed file
+ * can be more than the bytes transferred to the disk.
+ * The counters can be updated by any number of threads at once.
+ * <p>
+ * The getters follow the bean conventions,
+ * so that the statistics can be viewed through JMX.
+ */
+public class FileStats {
+   private LongAdder reads = new LongAdder();
+   private LongAdder writes = new LongAdder();
+   private LongAdder bytesRead = new LongAdder();
+   private LongAdder bytesWritten = new LongAdder();
+   private LongAdder appends = new LongAdder();
+   private LatencyHistogram readLatency = new LatencyHistogram();
+   private LatencyHistogram writeLatency = new LatencyHistogram();
+
+   void recordRead(int blocks, long bytes, long nanos) {
+      reads.add(blocks);
+      bytesRead.add(bytes);
+      readLatency.record(nanos);
+   }
+
+   void recordWrite(long bytes, long nanos) {
+      writes.increment();
+      bytesWritten.add(bytes);
+      writeLatency.record(nanos);
+   }
+
+   void recordAppend() {
+      appends.increment();
+   }
+
+   /**
+    * Returns the number of blocks read.
+    * A vectored read of several blocks counts each of them.
+    */
+   public long getReads() {
+      return reads.sum();
+   }
+
+   public long getWrites() {
+      return writes.sum();
+   }
+
+   public long getBytesRead() {
+      return bytesRead.sum();
+   }
+
+   public long getBytesWritten() {
+      return bytesWritten.sum();
+   }
+
+   public long getAppends() {
+      return appends.sum();
+   }
+
+   /**
+    * Returns the latency histogram of read calls.
+    * A vectored read is a single call.
+    */
+   public LatencyHistogram readLatency() {
+      return readLatency;
+   }
+
+   public LatencyHistogram writeLatency() {
+      return writeLatency;
+   }
+
+   public long[] getReadLatencyHistogram() {
+      return readLatency.counts();
+   }
+
+   public long[] getWriteLatencyHistogram() {
+      return writeLatency.counts();
+   }
+
+   public double getMeanReadMicros() {
+      return readLatency.meanMicros();
+   }
+
+   public double getMeanWriteMicros() {
+      return writeLatency.meanMicros();
+   }
+
+   public long getP99ReadMicros() {
+      return readLatency.percentileMicros(0.99);
+   }
+
+   public long getP99WriteMicros() {
+      return writeLatency.percentileMicros(0.99);
+   }
+
+   void reset() {
+      reads.reset();
+      writes.reset();
+      bytesRead.reset();
+      bytesWritten.reset();
+      appends.reset();
+      readLatency.reset();
+      writeLatency.reset();
+   }
+
+   public String toString() {
+      return "reads=" + getReads() + "|writes=" + getWrites()
+            + "|appends=" + getAppends()
+            + "|bytesRead=" + getBytesRead() + "|bytesWritten=" + getBytesWritten();
+   }
+}
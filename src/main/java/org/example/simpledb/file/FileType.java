@@ -0,0 +1,30 @@
+package org.example.simpledb.file;
+
+/**
+ * The kinds of files that the database stores,
+ * as determined from the file's name.
+ */
+public enum FileType {
+   TABLE, INDEX, TEMP, LOG;
+
+   /**
+    * Classifies the specified file.
+    * Temporary tables are named "tempN", tables (including the
+    * catalog tables and hash index buckets) end in ".tbl",
+    * and the log file ends in ".log".
+    * Any other file, such as a B-tree leaf or directory file,
+    * is treated as an index.
+    * @param filename the name of the file
+    * @return the type of the file
+    */
+   public static FileType of(String filename) {
+      if (filename.startsWith("temp"))
+         return TEMP;
+      else if (filename.endsWith(".log"))
+         return LOG;
+      else if (filename.endsWith(".tbl"))
+         return TABLE;
+      else
+         return INDEX;
+   }
+}
@@ -0,0 +1,159 @@
+package org.example.simpledb.file;
+
+import java.lang.management.ManagementFactory;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.*;
+
+/**
+ * The I/O statistics of a file manager,
+ * kept for each file and for each class of file
+ * (table, index, temp and log).
+ * The statistics can be read directly, or through JMX
+ * once they have been registered with {@link #register}.
+ */
+public class IOStats implements IOStatsMXBean {
+   private Map<String,FileStats> files = new ConcurrentHashMap<>();
+   private Map<FileType,FileStats> classes = new EnumMap<>(FileType.class);
+   private LongAdder handleHits = new LongAdder();
+   private LongAdder handleMisses = new LongAdder();
+   private LongAdder handleEvictions = new LongAdder();
+
+   public IOStats() {
+      for (FileType type : FileType.values())
+         classes.put(type, new FileStats());
+   }
+
+   /**
+    * Returns the statistics of the specified file.
+    * @param filename the name of the file
+    * @return the statistics of the file
+    */
+   public FileStats file(String filename) {
+      return files.computeIfAbsent(filename, f -> new FileStats());
+   }
+
+   /**
+    * Returns the combined statistics of every file of the specified class.
+    * @param type the class of file
+    * @return the statistics of the class
+    */
+   public FileStats fileClass(FileType type) {
+      return classes.get(type);
+   }
+
+   void recordRead(String filename, int blocks, long bytes, long nanos) {
+      file(filename).recordRead(blocks, bytes, nanos);
+      fileClass(FileType.of(filename)).recordRead(blocks, bytes, nanos);
+   }
+
+   void recordWrite(String filename, long bytes, long nanos) {
+      file(filename).recordWrite(bytes, nanos);
+      fileClass(FileType.of(filename)).recordWrite(bytes, nanos);
+   }
+
+   void recordAppend(String filename) {
+      file(filename).recordAppend();
+      fileClass(FileType.of(filename)).recordAppend();
+   }
+
+   void recordHandleHit() {
+      handleHits.increment();
+   }
+
+   void recordHandleMiss() {
+      handleMisses.increment();
+   }
+
+   void recordHandleEviction() {
+      handleEvictions.increment();
+   }
+
+   /**
+    * Forgets the statistics of a file that has been deleted.
+    * Its I/O remains counted in its file class.
+    */
+   void forget(String filename) {
+      files.remove(filename);
+   }
+
+   public Map<String,FileStats> getFileClasses() {
+      Map<String,FileStats> result = new LinkedHashMap<>();
+      for (FileType type : FileType.values())
+         result.put(type.name().toLowerCase(), classes.get(type));
+      return result;
+   }
+
+   public Map<String,FileStats> getFiles() {
+      return new TreeMap<>(files);
+   }
+
+   public long getReads() {
+      long n = 0;
+      for (FileStats s : classes.values())
+         n += s.getReads();
+      return n;
+   }
+
+   public long getWrites() {
+      long n = 0;
+      for (FileStats s : classes.values())
+         n += s.getWrites();
+      return n;
+   }
+
+   public long getAppends() {
+      long n = 0;
+      for (FileStats s : classes.values())
+         n += s.getAppends();
+      return n;
+   }
+
+   public long getHandleHits() {
+      return handleHits.sum();
+   }
+
+   public long getHandleMisses() {
+      return handleMisses.sum();
+   }
+
+   public long getHandleEvictions() {
+      return handleEvictions.sum();
+   }
+
+   public void reset() {
+      files.clear();
+      handleHits.reset();
+      handleMisses.reset();
+      handleEvictions.reset();
+      for (FileStats s : classes.values())
+         s.reset();
+   }
+
+   /**
+    * Registers the statistics with the platform MBean server,
+    * replacing any statistics previously registered under the same name.
+    * @param name the name of the database
+    */
+   public void register(String name) {
+      try {
+         MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+         ObjectName objname = new ObjectName("org.example.simpledb:type=IOStats,name="
+               + ObjectName.quote(name));
+         if (server.isRegistered(objname))
+            server.unregisterMBean(objname);
+         server.registerMBean(this, objname);
+      }
+      catch (JMException e) {
+         throw new RuntimeException("cannot register I/O statistics for " + name);
+      }
+   }
+
+   public String toString() {
+      StringBuilder sb = new StringBuilder();
+      for (Map.Entry<String,FileStats> e : getFileClasses().entrySet())
+         sb.append(e.getKey()).append(": ").append(e.getValue()).append("\n");
+      return sb.toString();
+   }
+}
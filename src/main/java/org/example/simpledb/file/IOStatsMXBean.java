@@ -0,0 +1,32 @@
+package org.example.simpledb.file;
+
+import java.util.Map;
+
+/**
+ * The management interface of {@link IOStats}.
+ */
+public interface IOStatsMXBean {
+   /** Returns the statistics of each class of file, keyed by class name. */
+   Map<String,FileStats> getFileClasses();
+
+   /** Returns the statistics of each file that has been used. */
+   Map<String,FileStats> getFiles();
+
+   long getReads();
+
+   long getWrites();
+
+   long getAppends();
+
+   /** Returns the number of accesses that found their file already open. */
+   long getHandleHits();
+
+   /** Returns the number of accesses that had to open their file. */
+   long getHandleMisses();
+
+   /** Returns the number of files closed to stay within the open-file limit. */
+   long getHandleEvictions();
+
+   /** Sets all of the statistics to zero. */
+   void reset();
+}
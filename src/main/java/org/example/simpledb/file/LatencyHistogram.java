@@ -0,0 +1,79 @@
+package org.example.simpledb.file;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A histogram of operation latencies, with buckets whose
+ * bounds are powers of two microseconds.
+ * Bucket 0 counts the operations that took less than 1 microsecond,
+ * and bucket <i>i</i> counts those that took at least
+ * 2<sup><i>i</i>-1</sup> but less than 2<sup><i>i</i></sup> microseconds.
+ * The last bucket also counts everything slower.
+ * Recording is lock-free, and so any number of threads
+ * can record at the same time.
+ */
+public class LatencyHistogram {
+   public static final int BUCKETS = 32;
+   private AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+   private LongAdder totalNanos = new LongAdder();
+
+   public void record(long nanos) {
+      long micros = nanos / 1000;
+      int bucket = Math.min(64 - Long.numberOfLeadingZeros(micros), BUCKETS - 1);
+      counts.incrementAndGet(bucket);
+      totalNanos.add(nanos);
+   }
+
+   /**
+    * Returns the number of operations in each bucket.
+    * @return an array of {@link #BUCKETS} counts
+    */
+   public long[] counts() {
+      long[] result = new long[BUCKETS];
+      for (int i=0; i<BUCKETS; i++)
+         result[i] = counts.get(i);
+      return result;
+   }
+
+   public long count() {
+      long n = 0;
+      for (int i=0; i<BUCKETS; i++)
+         n += counts.get(i);
+      return n;
+   }
+
+   public double meanMicros() {
+      long n = count();
+      return (n == 0) ? 0 : totalNanos.sum() / 1000.0 / n;
+   }
+
+   /**
+    * Returns an upper bound on the latency of the specified
+    * fraction of the operations, such as 0.99.
+    * The bound is the upper edge of a bucket, and so it is
+    * accurate to within a factor of two.
+    * @param fraction a value between 0 and 1
+    * @return the latency bound, in microseconds
+    */
+   public long percentileMicros(double fraction) {
+      long[] c = counts();
+      long n = 0;
+      for (long x : c)
+         n += x;
+      long target = (long) Math.ceil(fraction * n);
+      long seen = 0;
+      for (int i=0; i<BUCKETS; i++) {
+         seen += c[i];
+         if (seen >= target && seen > 0)
+            return 1L << i;
+      }
+      return 0;
+   }
+
+   void reset() {
+      for (int i=0; i<BUCKETS; i++)
+         counts.set(i, 0);
+      totalNanos.reset();
+   }
+}
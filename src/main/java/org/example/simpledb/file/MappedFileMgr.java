@@ -0,0 +1,139 @@
+package org.example.simpledb.file;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A file manager that memory-maps table and index files,
+ * so that reading or writing a block is a memory copy
+ * instead of a system call.
+ * <p>
+ * Each file is mapped in fixed-size chunks of blocks.
+ * A chunk is mapped only once the file has grown to cover it,
+ * which means that the blocks at the tail of a file
+ * (and blocks of the log and of temporary tables)
+ * are still transferred through the file channel.
+ * As {@link #append} extends a file, the tail chunk
+ * becomes full and is mapped on its next access.
+ * <p>
+ * Forcing a file also forces its mapped chunks.
+ * The buffer manager copies a modified block into the mapping
+ * only after flushing its log record, so the log still reaches
+ * the disk before the data does.
+ */
+public class MappedFileMgr extends FileMgr {
+   public static int CHUNK_SIZE = 1 << 20; // bytes per mapped region
+   private int chunkblocks;
+   private Map<String,MappedByteBuffer[]> mappings = new ConcurrentHashMap<>();
+
+   public MappedFileMgr(File dbDirectory, int blocksize, int extentsize) {
+      super(dbDirectory, blocksize, extentsize);
+      chunkblocks = Math.max(1, CHUNK_SIZE / blocksize);
+   }
+
+   void readBlock(BlockId blk, ByteBuffer bb) throws IOException {
+      MappedByteBuffer region = chunkFor(blk);
+      if (region == null)
+         super.readBlock(blk, bb);
+      else
+         bb.put(0, region, chunkOffset(blk), blockSize());
+   }
+
+   void readBlocks(BlockId first, ByteBuffer[] bbs) throws IOException {
+      for (int i=0; i<bbs.length; i++) {
+         BlockId blk = new BlockId(first.fileName(), first.number() + i);
+         MappedByteBuffer region = chunkFor(blk);
+         if (region == null) {
+            // the remaining blocks are at the unmapped tail of the file
+            super.readBlocks(blk, Arrays.copyOfRange(bbs, i, bbs.length));
+            return;
+         }
+         bbs[i].put(0, region, chunkOffset(blk), blockSize());
+      }
+   }
+
+   void writeBlock(BlockId blk, ByteBuffer bb) throws IOException {
+      MappedByteBuffer region = chunkFor(blk);
+      if (region == null)
+         super.writeBlock(blk, bb);
+      else {
+         extendPast(blk);
+         region.put(chunkOffset(blk), bb, 0, blockSize());
+      }
+   }
+
+   void writeBlocks(BlockId first, ByteBuffer[] bbs) throws IOException {
+      for (int i=0; i<bbs.length; i++) {
+         BlockId blk = new BlockId(first.fileName(), first.number() + i);
+         if (chunkFor(blk) == null) {
+            super.writeBlocks(blk, Arrays.copyOfRange(bbs, i, bbs.length));
+            return;
+         }
+         writeBlock(blk, bbs[i]);
+      }
+   }
+
+   void forceFile(String filename) throws IOException {
+      MappedByteBuffer[] chunks = mappings.get(filename);
+      if (chunks != null)
+         for (MappedByteBuffer chunk : chunks)
+            chunk.force();
+      super.forceFile(filename);
+   }
+
+   /** Drops the file's mappings, and then deletes the file. */
+   public void delete(String filename) {
+      mappings.remove(filename);
+      super.delete(filename);
+   }
+
+   /**
+    * Returns the mapped chunk that contains the specified block,
+    * mapping it if the file is now long enough.
+    * Returns null if the block must be accessed through the channel.
+    */
+   private MappedByteBuffer chunkFor(BlockId blk) throws IOException {
+      FileType type = FileType.of(blk.fileName());
+      if (type != FileType.TABLE && type != FileType.INDEX)
+         return null;
+      int chunk = blk.number() / chunkblocks;
+      MappedByteBuffer[] chunks = mappings.get(blk.fileName());
+      if (chunks != null && chunk < chunks.length)
+         return chunks[chunk];
+      return mapChunks(blk.fileName(), chunk);
+   }
+
+   /**
+    * Maps every complete chunk of the file up to the specified one.
+    * Only whole chunks are mapped, since mapping past the end
+    * of a file would change its length.
+    */
+   private MappedByteBuffer mapChunks(String filename, int chunk) throws IOException {
+      length(filename); // reads the saved length before anything is mapped
+      synchronized (mappings) {
+         long chunkbytes = (long) chunkblocks * blockSize();
+         MappedByteBuffer[] chunks = mappings.getOrDefault(filename, new MappedByteBuffer[0]);
+         if (chunk < chunks.length)
+            return chunks[chunk];
+         // a mapping stays valid after the file is closed
+         try (FileHandleCache.Handle h = openFile(filename)) {
+            int complete = (int) (h.file().length() / chunkbytes);
+            if (chunk >= complete)
+               return null;
+            MappedByteBuffer[] newchunks = Arrays.copyOf(chunks, complete);
+            for (int i=chunks.length; i<complete; i++)
+               newchunks[i] = h.channel().map(FileChannel.MapMode.READ_WRITE, i * chunkbytes, chunkbytes);
+            mappings.put(filename, newchunks);
+            return newchunks[chunk];
+         }
+      }
+   }
+
+   private int chunkOffset(BlockId blk) {
+      return (blk.number() % chunkblocks) * blockSize();
+   }
+}
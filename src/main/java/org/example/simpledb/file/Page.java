@@ -12,6 +12,11 @@ public class Page {
       bb = ByteBuffer.allocateDirect(blocksize);
    }
    
+   // For creating data buffers in a frame of a buffer pool's memory
+   public Page(ByteBuffer frame) {
+      bb = frame;
+   }
+
    // For creating log pages
    public Page(byte[] b) {
       bb = ByteBuffer.wrap(b);
@@ -53,6 +58,40 @@ public class Page {
       setBytes(offset, b);
    }
 
+   /**
+    * Compares the string stored at the specified offset
+    * with an encoded key, without decoding the string.
+    * The bytes are compared as unsigned values, which for a
+    * single-byte charset such as the default one orders
+    * strings the same way as {@link String#compareTo}.
+    * @param offset the offset of the stored string
+    * @param key the encoded key
+    * @return a negative value, zero, or a positive value
+    * as the stored string is less than, equal to, or greater than the key
+    */
+   public int compareBytes(int offset, byte[] key) {
+      int length = bb.getInt(offset);
+      int start = offset + Integer.BYTES;
+      int n = Math.min(length, key.length);
+      for (int i=0; i<n; i++) {
+         int cmp = Byte.compareUnsigned(bb.get(start + i), key[i]);
+         if (cmp != 0)
+            return cmp;
+      }
+      return length - key.length;
+   }
+
+   /**
+    * Returns true if the string stored at the specified offset
+    * has the same encoding as the key.
+    * @param offset the offset of the stored string
+    * @param key the encoded key
+    * @return true if the stored string equals the key
+    */
+   public boolean bytesEqual(int offset, byte[] key) {
+      return bb.getInt(offset) == key.length && compareBytes(offset, key) == 0;
+   }
+
    public static int maxLength(int strlen) {
       float bytesPerChar = CHARSET.newEncoder().maxBytesPerChar();
       return Integer.BYTES + (strlen * (int)bytesPerChar);
@@ -0,0 +1,102 @@
+package org.example.simpledb.file;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A fast run-length codec for block contents.
+ * Record and index pages are mostly padding,
+ * because each field reserves the full width of its type,
+ * and so they shrink a great deal under run-length encoding.
+ * <p>
+ * The encoding is a sequence of packets, each beginning
+ * with a signed control byte <i>c</i>:
+ * if <i>c</i> is between 0 and 127, the next <i>c</i>+1 bytes
+ * are copied literally;
+ * if <i>c</i> is between -127 and -1, the next byte is
+ * repeated 1-<i>c</i> times.
+ * A page never grows by more than one byte in 128.
+ * <p>
+ * The codec allocates nothing: each thread copies the page
+ * into its own scratch array, which is kept between calls.
+ */
+public class PageCodec {
+   private static final int MAX_PACKET = 128;
+   private static final ThreadLocal<byte[]> scratch = ThreadLocal.withInitial(() -> new byte[0]);
+
+   /**
+    * Returns the largest size that the encoding of
+    * the specified number of bytes can have.
+    * @param n the number of bytes to encode
+    * @return the size of a large enough output array
+    */
+   public static int maxCompressedLength(int n) {
+      return n + (n + MAX_PACKET - 1) / MAX_PACKET;
+   }
+
+   /**
+    * Encodes the first n bytes of the buffer into the array.
+    * The buffer's position is not changed.
+    * @param src the bytes to encode
+    * @param n the number of bytes to encode
+    * @param dst the output array, with room for {@link #maxCompressedLength} bytes
+    * @param off the offset in the array at which the encoding begins
+    * @return the length of the encoding
+    */
+   public static int compress(ByteBuffer src, int n, byte[] dst, int off) {
+      byte[] b = scratch.get();
+      if (b.length < n) {
+         b = new byte[n];
+         scratch.set(b);
+      }
+      src.get(0, b, 0, n);
+      int i = 0, out = off;
+      while (i < n) {
+         int run = 1;
+         while (i + run < n && run < MAX_PACKET && b[i+run] == b[i])
+            run++;
+         if (run >= 3) {
+            dst[out++] = (byte) (1 - run);
+            dst[out++] = b[i];
+            i += run;
+         }
+         else {
+            // copy literals until a run of three begins
+            int start = i;
+            while (i < n && i - start < MAX_PACKET) {
+               if (i + 2 < n && b[i] == b[i+1] && b[i] == b[i+2])
+                  break;
+               i++;
+            }
+            dst[out++] = (byte) (i - start - 1);
+            System.arraycopy(b, start, dst, out, i - start);
+            out += i - start;
+         }
+      }
+      return out - off;
+   }
+
+   /**
+    * Decodes the encoding into the buffer, starting at offset 0.
+    * The buffer's position is not changed.
+    * @param src the encoded bytes
+    * @param off the offset in the array at which the encoding begins
+    * @param len the length of the encoding
+    * @param dst the buffer that receives the decoded bytes
+    */
+   public static void decompress(byte[] src, int off, int len, ByteBuffer dst) {
+      int in = off, out = 0;
+      while (in < off + len) {
+         int c = src[in++];
+         if (c >= 0) {
+            dst.put(out, src, in, c + 1);
+            in += c + 1;
+            out += c + 1;
+         }
+         else {
+            byte val = src[in++];
+            for (int i=0; i<1-c; i++)
+               dst.put(out++, val);
+         }
+      }
+   }
+}
@@ -0,0 +1,119 @@
+package org.example.simpledb.file;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.*;
+
+/**
+ * Round-trips pages through {@link PageCodec}, including runs
+ * at the packet boundaries, and then checks that a
+ * {@link CompressedFileMgr} directory reads back the same blocks
+ * after they are rewritten with different compressed sizes
+ * and the directory is reopened.
+ */
+public class PageCodecTest {
+   private static final int BLOCK_SIZE = 400;
+   private static boolean ok = true;
+
+   public static void main(String[] args) throws Exception {
+      Random rand = new Random(42);
+      roundTrip("zeros", new byte[BLOCK_SIZE]);
+      roundTrip("random", randomBytes(rand, BLOCK_SIZE));
+      roundTrip("record page", recordPage(rand));
+      for (int run : new int[] {2, 3, 127, 128, 129, 130, 256, 257}) {
+         byte[] b = randomBytes(rand, BLOCK_SIZE);
+         Arrays.fill(b, 50, 50 + run, (byte) 7);
+         roundTrip("run of " + run, b);
+         b = randomBytes(rand, BLOCK_SIZE);
+         Arrays.fill(b, BLOCK_SIZE - run, BLOCK_SIZE, (byte) 7);
+         roundTrip("run of " + run + " at the end", b);
+      }
+      for (int n : new int[] {1, 2, 127, 128, 129}) {
+         byte[] b = new byte[BLOCK_SIZE];
+         for (int i=0; i<n; i++)
+            b[i] = (byte) i;
+         roundTrip(n + " literals", b);
+      }
+      reopen();
+      System.out.println(ok ? "all pages round-tripped" : "ROUND TRIP FAILED");
+   }
+
+   private static void roundTrip(String name, byte[] page) {
+      byte[] enc = new byte[PageCodec.maxCompressedLength(page.length)];
+      int len = PageCodec.compress(ByteBuffer.wrap(page), page.length, enc, 0);
+      ByteBuffer out = ByteBuffer.allocate(page.length);
+      PageCodec.decompress(enc, 0, len, out);
+      boolean same = Arrays.equals(page, out.array());
+      System.out.println(name + ": " + page.length + " -> " + len + " bytes"
+            + (same ? "" : " MISMATCH"));
+      if (!same || len > PageCodec.maxCompressedLength(page.length))
+         ok = false;
+   }
+
+   // Writes blocks, rewrites them so that some grow out of their
+   // slots and others shrink, and reads them back after reopening.
+   private static void reopen() throws Exception {
+      File dir = Files.createTempDirectory("codectest").toFile();
+      try {
+         Random rand = new Random(7);
+         byte[][] expected = new byte[6][];
+         CompressedFileMgr fm = new CompressedFileMgr(dir, BLOCK_SIZE, 1);
+         for (int i=0; i<expected.length; i++) {
+            expected[i] = (i % 2 == 0) ? recordPage(rand) : randomBytes(rand, BLOCK_SIZE);
+            write(fm, i, expected[i]);
+         }
+         fm.forceAll();
+         for (int i=0; i<expected.length; i++) {
+            expected[i] = (i % 2 == 0) ? randomBytes(rand, BLOCK_SIZE) : recordPage(rand);
+            write(fm, i, expected[i]);
+         }
+         fm.forceAll();
+
+         fm = new CompressedFileMgr(dir, BLOCK_SIZE, 1);
+         boolean same = fm.length("codec.tbl") == expected.length;
+         for (int i=0; i<expected.length; i++) {
+            byte[] b = new byte[BLOCK_SIZE];
+            fm.read(new BlockId("codec.tbl", i), new Page(b));
+            same = same && Arrays.equals(expected[i], b);
+         }
+         // a block that was never written reads as zeros
+         byte[] b = new byte[BLOCK_SIZE];
+         Arrays.fill(b, (byte) 1);
+         fm.read(new BlockId("codec.tbl", expected.length + 3), new Page(b));
+         same = same && Arrays.equals(new byte[BLOCK_SIZE], b);
+         System.out.println("reopened compressed file: "
+               + (same ? "all blocks intact" : "BLOCKS DIFFER"));
+         if (!same)
+            ok = false;
+      }
+      finally {
+         for (File f : dir.listFiles())
+            f.delete();
+         dir.delete();
+      }
+   }
+
+   private static void write(FileMgr fm, int blknum, byte[] contents) {
+      fm.write(new BlockId("codec.tbl", blknum), new Page(contents.clone()));
+   }
+
+   private static byte[] randomBytes(Random rand, int n) {
+      byte[] b = new byte[n];
+      rand.nextBytes(b);
+      return b;
+   }
+
+   // A page of records, each a flag, an int and a short string
+   // in a field padded with zeros.
+   private static byte[] recordPage(Random rand) {
+      ByteBuffer bb = ByteBuffer.allocate(BLOCK_SIZE);
+      for (int pos=0; pos+40 <= BLOCK_SIZE; pos+=40) {
+         bb.putInt(pos, 1);
+         bb.putInt(pos + 4, rand.nextInt(1000));
+         bb.putInt(pos + 8, 3);
+         bb.put(pos + 12, new byte[] {'a', 'b', (byte) ('a' + rand.nextInt(26))});
+      }
+      return bb.array();
+   }
+}
@@ -0,0 +1,65 @@
+package org.example.simpledb.file;
+
+import java.util.concurrent.*;
+
+/**
+ * An I/O scheduler that reads blocks in the background.
+ * Clients hint that a range of blocks will be needed soon,
+ * handing over the pages that should receive them;
+ * a pool of I/O threads performs the reads, so that the
+ * disk latency overlaps with the client's own work.
+ * Each hint is serviced by a single vectored read
+ * (see {@link FileMgr#read(BlockId, Page[])}).
+ * <p>
+ * A client must not touch the pages of a hint
+ * until the returned future has completed.
+ * If the read fails, the future completes exceptionally
+ * and the client should read the blocks itself.
+ * Once the scheduler has been shut down, reads are
+ * performed by the calling thread.
+ */
+public class PrefetchScheduler {
+   private FileMgr fm;
+   private ExecutorService ioThreads;
+
+   /**
+    * Creates a scheduler with the specified number of I/O threads.
+    * The threads are started on demand, and are daemon threads,
+    * so an idle scheduler does not keep the server alive.
+    * @param fm the file manager
+    * @param nthreads the maximum number of concurrent reads
+    */
+   public PrefetchScheduler(FileMgr fm, int nthreads) {
+      this.fm = fm;
+      ioThreads = Executors.newFixedThreadPool(nthreads, r -> {
+         Thread t = new Thread(r, "simpledb-prefetch");
+         t.setDaemon(true);
+         return t;
+      });
+   }
+
+   /**
+    * Schedules the consecutive blocks starting at the specified
+    * block to be read into the specified pages.
+    * If the scheduler has been shut down, the blocks are read
+    * before the method returns.
+    * @param first the first block to read
+    * @param pages one page for each block to read
+    * @return a future that completes when the pages are filled
+    */
+   public CompletableFuture<Void> schedule(BlockId first, Page[] pages) {
+      try {
+         return CompletableFuture.runAsync(() -> fm.read(first, pages), ioThreads);
+      }
+      catch (RejectedExecutionException e) {
+         return CompletableFuture.runAsync(() -> fm.read(first, pages), Runnable::run);
+      }
+   }
+
+   /**
+    * Stops the I/O threads once the scheduled reads are done.
+    */
+   public void shutdown() {
+      ioThreads.shutdown();
+   }
+}
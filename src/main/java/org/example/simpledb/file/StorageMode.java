@@ -0,0 +1,14 @@
+package org.example.simpledb.file;
+
+/**
+ * The ways in which the file manager can transfer blocks
+ * between pages and the disk.
+ */
+public enum StorageMode {
+   /** Each block is read and written with a positional channel call. */
+   CHANNEL,
+   /** Table and index files are memory-mapped; see {@link MappedFileMgr}. */
+   MAPPED,
+   /** Table and index blocks are stored compressed; see {@link CompressedFileMgr}. */
+   COMPRESSED
+}
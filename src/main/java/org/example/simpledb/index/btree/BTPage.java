@@ -42,7 +42,7 @@ public class BTPage {
     */
    public int findSlotBefore(Constant searchkey) {
       int slot = 0;
-      while (slot < getNumRecs() && getDataVal(slot).compareTo(searchkey) < 0)
+      while (slot < getNumRecs() && compareDataVal(slot, searchkey) < 0)
          slot++;
       return slot-1;
    }
@@ -215,6 +215,18 @@ public class BTPage {
       return tx.getString(currentblk, pos);
    }
    
+   /**
+    * Compares the dataval of the specified slot with a key
+    * in place, without creating a Constant.
+    */
+   private int compareDataVal(int slot, Constant key) {
+      int pos = fldpos(slot, "dataval");
+      if (layout.schema().type("dataval") == INTEGER)
+         return Integer.compare(tx.getInt(currentblk, pos), key.asInt());
+      else
+         return tx.compareString(currentblk, pos, key.asBytes());
+   }
+   
    private Constant getVal(int slot, String fldname) {
       int type = layout.schema().type(fldname);
       if (type == INTEGER)
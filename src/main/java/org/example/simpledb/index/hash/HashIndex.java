@@ -59,7 +59,7 @@ public class HashIndex implements Index {
 	 */
 	public boolean next() {
 		while (ts.next())
-			if (ts.getVal("dataval").equals(searchkey))
+			if (ts.valEquals("dataval", searchkey))
 				return true;
 		return false;
 	}
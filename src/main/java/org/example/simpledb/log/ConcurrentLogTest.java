@@ -0,0 +1,108 @@
+package org.example.simpledb.log;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.*;
+import org.example.simpledb.file.FileMgr;
+import org.example.simpledb.file.Page;
+
+/**
+ * Appends log records from several threads at once,
+ * some of them flushing as they go, and then reads the log back.
+ * Every record must be read back exactly once, intact,
+ * the LSNs handed out must be distinct and ascending,
+ * and each thread's records must appear in the order
+ * the thread appended them.
+ * Now and then a thread abandons a record it has reserved,
+ * which must hold up neither the other threads nor the reading.
+ */
+public class ConcurrentLogTest {
+   private static final int THREADS = 8;
+   private static final int RECORDS = 5000; // per thread
+   private static final int ABANDON_EVERY = 1000;
+
+   public static void main(String[] args) throws Exception {
+      File dir = Files.createTempDirectory("logtest").toFile();
+      try {
+         FileMgr fm = new FileMgr(dir, 400);
+         LogMgr lm = new LogMgr(fm, "concurrent.log");
+         int[][] lsns = new int[THREADS][RECORDS];
+         Thread[] threads = new Thread[THREADS];
+         for (int t=0; t<THREADS; t++) {
+            int id = t;
+            threads[t] = new Thread(() -> {
+               for (int i=0; i<RECORDS; i++) {
+                  // records of different sizes, so that blocks fill unevenly
+                  String s = "thread" + id + "-" + "x".repeat(i % 20);
+                  lsns[id][i] = lm.append(createLogRecord(s, i));
+                  if (id % 2 == 0 && i % 100 == 0)
+                     lm.flush(lsns[id][i]);
+                  if (i % ABANDON_EVERY == 0)
+                     abandon(lm);
+               }
+            });
+            threads[t].start();
+         }
+         for (Thread th : threads)
+            th.join();
+
+         boolean ok = true;
+         BitSet seen = new BitSet();
+         for (int[] ls : lsns)
+            for (int lsn : ls)
+               seen.set(lsn);
+         // each abandoned record used up an LSN
+         int abandoned = THREADS * (RECORDS / ABANDON_EVERY);
+         if (seen.cardinality() != THREADS * RECORDS || seen.nextSetBit(0) < 1
+               || seen.length() != THREADS * RECORDS + abandoned + 1)
+            ok = false;
+
+         // the log is read backwards, so each thread's records come last first
+         int[] next = new int[THREADS];
+         Arrays.fill(next, RECORDS - 1);
+         int count = 0;
+         Iterator<byte[]> iter = lm.iterator();
+         while (iter.hasNext()) {
+            Page p = new Page(iter.next());
+            int val = p.getInt(0);
+            String s = p.getString(Integer.BYTES);
+            int id = Integer.parseInt(s.substring(6, s.indexOf('-')));
+            if (val != next[id] || !s.equals("thread" + id + "-" + "x".repeat(val % 20)))
+               ok = false;
+            next[id]--;
+            count++;
+         }
+         System.out.println(THREADS + " threads appended " + (THREADS * RECORDS)
+               + " records, " + count + " read back");
+         System.out.println((ok && count == THREADS * RECORDS)
+               ? "log consistent" : "LOG INCONSISTENT");
+         lm.close();
+      }
+      finally {
+         for (File f : dir.listFiles())
+            f.delete();
+         dir.delete();
+      }
+   }
+
+   // Reserve a record and fail before publishing it.
+   private static void abandon(LogMgr lm) {
+      try (LogRecordWriter w = lm.reserve(2 * Integer.BYTES)) {
+         w.setInt(0, -1);
+         throw new IllegalStateException("abandoned");
+      }
+      catch (IllegalStateException e) {
+      }
+   }
+
+   // Create a log record having two values: an integer and a string.
+   private static byte[] createLogRecord(String s, int n) {
+      int npos = 0;
+      int spos = npos + Integer.BYTES;
+      byte[] b = new byte[spos + Page.maxLength(s.length())];
+      Page p = new Page(b);
+      p.setInt(npos, n);
+      p.setString(spos, s);
+      return b;
+   }
+}
@@ -0,0 +1,90 @@
+package org.example.simpledb.log;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Iterator;
+import org.example.simpledb.file.FileMgr;
+import org.example.simpledb.file.Page;
+
+/**
+ * Appends enough records to swap the halves of a small log buffer
+ * many times, reopening the log between rounds of appends,
+ * with group commit on and off.
+ * The reopened log must then return every record, in the
+ * reverse of the order in which they were appended.
+ */
+public class HalfSwapTest {
+   private static final int BLOCK_SIZE = 400;
+   private static final int ROUNDS = 3;
+
+   public static void main(String[] args) throws Exception {
+      boolean groupcommit = LogMgr.GROUP_COMMIT;
+      int bufferblocks = LogMgr.LOG_BUFFER_BLOCKS;
+      LogMgr.LOG_BUFFER_BLOCKS = 4; // halves of two blocks
+      try {
+         boolean ok = run(true) & run(false);
+         System.out.println(ok ? "log intact" : "LOG DAMAGED");
+      }
+      finally {
+         LogMgr.GROUP_COMMIT = groupcommit;
+         LogMgr.LOG_BUFFER_BLOCKS = bufferblocks;
+      }
+   }
+
+   private static boolean run(boolean groupcommit) throws Exception {
+      LogMgr.GROUP_COMMIT = groupcommit;
+      File dir = Files.createTempDirectory("swaptest").toFile();
+      try {
+         boolean ok = true;
+         int total = 0;
+         for (int round=0; round<ROUNDS; round++) {
+            LogMgr lm = new LogMgr(new FileMgr(dir, BLOCK_SIZE), "swap.log");
+            int lsn = 0;
+            for (int i=0; i<1000 + 37*round; i++) {
+               int next = lm.append(createLogRecord(total, "r" + total));
+               if (lsn > 0 && next != lsn + 1)
+                  ok = false;
+               lsn = next;
+               total++;
+               if (i % 150 == 0)
+                  lm.flush(lsn);
+            }
+            lm.flush(lsn);
+            lm.close();
+         }
+
+         FileMgr fm = new FileMgr(dir, BLOCK_SIZE);
+         LogMgr lm = new LogMgr(fm, "swap.log");
+         Iterator<byte[]> iter = lm.iterator();
+         int expected = total;
+         while (iter.hasNext()) {
+            Page p = new Page(iter.next());
+            expected--;
+            if (p.getInt(0) != expected || !p.getString(Integer.BYTES).equals("r" + expected))
+               ok = false;
+         }
+         lm.close();
+         ok = ok && expected == 0;
+         System.out.println("group commit " + (groupcommit ? "on" : "off") + ": "
+               + total + " records in " + fm.length("swap.log") + " blocks, "
+               + (total - expected) + " read back " + (ok ? "in order" : "WRONG"));
+         return ok;
+      }
+      finally {
+         for (File f : dir.listFiles())
+            f.delete();
+         dir.delete();
+      }
+   }
+
+   // Create a log record having two values: an integer and a string.
+   private static byte[] createLogRecord(int n, String s) {
+      int npos = 0;
+      int spos = npos + Integer.BYTES;
+      byte[] b = new byte[spos + Page.maxLength(s.length())];
+      Page p = new Page(b);
+      p.setInt(npos, n);
+      p.setString(spos, s);
+      return b;
+   }
+}
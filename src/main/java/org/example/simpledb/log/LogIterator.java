@@ -1,21 +1,29 @@
 package org.example.simpledb.log;
 
 import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 
 import org.example.simpledb.file.BlockId;
 import org.example.simpledb.file.FileMgr;
 import org.example.simpledb.file.Page;
+import org.example.simpledb.file.PrefetchScheduler;
 
 /**
  * A class that provides the ability to move through the
  * records of the log file in reverse order.
+ * While the records of a block are being returned,
+ * the previous block is read in the background.
  * 
  * @author Edward Sciore
  */
 class LogIterator implements Iterator<byte[]> {
    private FileMgr fm;
+   private PrefetchScheduler prefetcher;
    private BlockId blk;
-   private Page p;
+   private Page p, prevpage;
+   private CompletableFuture<Void> prevread = null;
    private int currentpos;
    private int boundary;
 
@@ -23,11 +31,12 @@ class LogIterator implements Iterator<byte[]> {
     * Creates an iterator for the records in the log file,
     * positioned after the last log record.
     */
-   public LogIterator(FileMgr fm, BlockId blk) {
+   public LogIterator(FileMgr fm, BlockId blk, PrefetchScheduler prefetcher) {
       this.fm = fm;
+      this.prefetcher = prefetcher;
       this.blk = blk;
-      byte[] b = new byte[fm.blockSize()];
-      p = new Page(b);
+      p = new Page(new byte[fm.blockSize()]);
+      prevpage = new Page(new byte[fm.blockSize()]);
       moveToBlock(blk);
    }
 
@@ -37,6 +46,7 @@ class LogIterator implements Iterator<byte[]> {
     * @return true if there is an earlier record
     */
    public boolean hasNext() {
+      skipPadding();
       return currentpos<fm.blockSize() || blk.number()>0;
    }
 
@@ -48,23 +58,61 @@ class LogIterator implements Iterator<byte[]> {
     * @return the next earliest log record
     */
    public byte[] next() {
-      if (currentpos == fm.blockSize()) {
+      skipPadding();
+      while (currentpos == fm.blockSize()) {
+         if (blk.number() == 0)
+            throw new NoSuchElementException();
          blk = new BlockId(blk.fileName(), blk.number()-1);
          moveToBlock(blk);
+         skipPadding();
       }
       byte[] rec = p.getBytes(currentpos);
       currentpos += Integer.BYTES + rec.length;
       return rec;
    }
 
+   /**
+    * Moves past the padding left by abandoned records
+    * at the current position of the block.
+    * The length of padding is the complement of its size.
+    */
+   private void skipPadding() {
+      while (currentpos < fm.blockSize()) {
+         int len = p.getInt(currentpos);
+         if (len >= 0)
+            return;
+         currentpos += Integer.BYTES + ~len;
+      }
+   }
+
    /**
     * Moves to the specified log block
     * and positions it at the first record in that block
     * (i.e., the most recent one).
+    * If the block was read in the background, its page
+    * becomes the current one; otherwise it is read now.
+    * Then the block before it is scheduled to be read.
     */
    private void moveToBlock(BlockId blk) {
-      fm.read(blk, p);
+      if (prevread == null)
+         fm.read(blk, p);
+      else {
+         try {
+            prevread.join();
+            Page tmp = p;
+            p = prevpage;
+            prevpage = tmp;
+         }
+         catch (CompletionException e) {
+            fm.read(blk, p);
+         }
+         prevread = null;
+      }
       boundary = p.getInt(0);
       currentpos = boundary;
+      if (blk.number() > 0) {
+         BlockId prevblk = new BlockId(blk.fileName(), blk.number()-1);
+         prevread = prefetcher.schedule(prevblk, new Page[] {prevpage});
+      }
    }
 }
@@ -1,25 +1,85 @@
 package org.example.simpledb.log;
 
+import java.nio.ByteBuffer;
+import java.util.Arrays;
 import java.util.Iterator;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.example.simpledb.file.BlockId;
 import org.example.simpledb.file.FileMgr;
 import org.example.simpledb.file.Page;
+import org.example.simpledb.file.PrefetchScheduler;
 
 /**
  * The log manager, which is responsible for 
  * writing log records into a log file. The tail of 
  * the log is kept in a bytebuffer, which is flushed
  * to disk when needed. 
+ * <p>
+ * With group commit, a thread that needs its records on disk
+ * does not write the log itself: it asks a log writer thread
+ * for its LSN and waits. The writer writes and forces the log
+ * once for every request that has arrived, optionally waiting
+ * {@link #COMMIT_WINDOW_MICROS} first for more to arrive,
+ * so that concurrent commits share a single disk write.
+ * <p>
+ * Appending does not lock the log manager.
+ * A thread reserves the space of its record by atomically
+ * moving the boundary of the log page, together with the LSN,
+ * and then writes the record into the page in place
+ * (see {@link LogRecordWriter}), in parallel with other threads.
+ * The records are then published in LSN order, and only
+ * published records are written to disk.
+ * Only moving to a new log block takes the lock.
+ * <p>
+ * The log buffer holds {@link #LOG_BUFFER_BLOCKS} blocks,
+ * in two halves. Records are appended to the blocks of one half
+ * in turn, and moving to the next block involves no I/O.
+ * When the half is full, appending continues in the other half
+ * while the full one is written in the background by the log writer,
+ * in a single gathering write. Appenders wait only when
+ * the other half has not yet been written by the time
+ * the current one fills up.
+ * A flush writes the half being written, if any,
+ * and the blocks of the current half not yet written.
+ * <p>
+ * {@link #close()} writes the whole log and stops the log writer.
  * @author Edward Sciore
  */
-public class LogMgr {
+public class LogMgr implements Runnable {
+   public static boolean GROUP_COMMIT = true;
+   public static int COMMIT_WINDOW_MICROS = 0; // time the writer waits for more commits
+   public static int LOG_BUFFER_BLOCKS = 16; // blocks in both halves of the log buffer
    private FileMgr fm;
+   private PrefetchScheduler prefetcher;
+   private boolean ownsPrefetcher = false;
    private String logfile;
-   private Page logpage;
-   private BlockId currentblk;
-   private int latestLSN = 0;
-   private int lastSavedLSN = 0;
+   private int halfsize;
+   private Page[][] pages;      // the blocks of the two halves
+   private ByteBuffer[][] bufs; // their bytes, for writing records in place
+   private Page tailpage;       // a copy of the current block, as it is written
+   private ByteBuffer tailbuf;
+   private volatile ByteBuffer logbuf; // the current block
+   private int half, cur;       // the current half, and the current block in it
+   private int halfstart;       // the block number of the first block of the current half
+   private int written = 0;     // the number of completed blocks of the current half on disk
+   private int pendingstart = -1; // the first block number of the full half, or -1
+   private int pendingfrom;     // the first of its blocks not yet on disk
+   private Object ioLock = new Object();
+   private BlockId lastwrittenblk;
+   // the latest LSN and the boundary of the log page, packed as a long;
+   // the boundary is -1 while the page is being replaced
+   private AtomicLong reserved = new AtomicLong();
+   // the same, for the records that have been completely written
+   private AtomicLong published = new AtomicLong();
+   private ThreadLocal<LogRecordWriter> writers = ThreadLocal.withInitial(() -> new LogRecordWriter(this));
+   private volatile int lastSavedLSN = 0;
+   private int requestedLSN = 0;
+   private boolean writerIdle = true;
+   private boolean stopping = false;
+   private volatile Thread writer = null;
+   private long flushes = 0, flushWaits = 0;
 
    /**
     * Creates the manager for the specified log file.
@@ -29,16 +89,51 @@ public class LogMgr {
     * @param logfile the name of the log file
     */
    public LogMgr(FileMgr fm, String logfile) {
+      this(fm, logfile, new PrefetchScheduler(fm, 1));
+      ownsPrefetcher = true;
+   }
+
+   /**
+    * Creates the manager for the specified log file,
+    * whose iterators read earlier blocks in the background
+    * using the specified scheduler.
+    * @param FileMgr the file manager
+    * @param logfile the name of the log file
+    * @param prefetcher the scheduler for background reads
+    */
+   public LogMgr(FileMgr fm, String logfile, PrefetchScheduler prefetcher) {
       this.fm = fm;
+      this.prefetcher = prefetcher;
       this.logfile = logfile;
-      byte[] b = new byte[fm.blockSize()];
-      logpage = new Page(b);
+      halfsize = Math.max(1, LOG_BUFFER_BLOCKS / 2);
+      pages = new Page[2][halfsize];
+      bufs = new ByteBuffer[2][halfsize];
+      for (int h=0; h<2; h++)
+         for (int i=0; i<halfsize; i++) {
+            byte[] b = new byte[fm.blockSize()];
+            pages[h][i] = new Page(b);
+            bufs[h][i] = ByteBuffer.wrap(b);
+         }
+      byte[] tail = new byte[fm.blockSize()];
+      tailpage = new Page(tail);
+      tailbuf = ByteBuffer.wrap(tail);
+      logbuf = bufs[0][0];
       int logsize = fm.length(logfile);
       if (logsize == 0)
-         currentblk = appendNewBlock();
+         logbuf.putInt(0, fm.blockSize());
       else {
-         currentblk = new BlockId(logfile, logsize-1);
-         fm.read(currentblk, logpage);
+         halfstart = logsize-1;
+         fm.read(new BlockId(logfile, halfstart), pages[0][0]);
+      }
+      lastwrittenblk = new BlockId(logfile, halfstart);
+      reserved.set(pack(0, logbuf.getInt(0)));
+      published.set(reserved.get());
+      if (logsize == 0)
+         writeLog(true);
+      if (GROUP_COMMIT) {
+         writer = new Thread(this, "simpledb-logwriter");
+         writer.setDaemon(true);
+         writer.start();
       }
    }
 
@@ -46,16 +141,135 @@ public class LogMgr {
     * Ensures that the log record corresponding to the
     * specified LSN has been written to disk.
     * All earlier log records will also be written to disk.
+    * With group commit, the calling thread waits
+    * for the log writer to write the record.
     * @param lsn the LSN of a log record
     */
    public void flush(int lsn) {
-      if (lsn >= lastSavedLSN)
+      if (writer == null) {
+         synchronized (ioLock) {
+            if (lsn >= lastSavedLSN)
+               flush();
+         }
+         return;
+      }
+      synchronized (this) {
+         if (lsn <= lastSavedLSN)
+            return;
+         flushWaits++;
+         if (lsn > requestedLSN) {
+            requestedLSN = lsn;
+            if (writerIdle)
+               notifyAll();
+         }
+         boolean interrupted = false;
+         while (lsn > lastSavedLSN && !interrupted)
+            interrupted = await();
+         if (!interrupted)
+            return;
+         Thread.currentThread().interrupt();
+      }
+      if (lsn > lastSavedLSN)
          flush();
    }
 
-   public Iterator<byte[]> iterator() {
+   /**
+    * The log writer: waits for flush requests, and then
+    * writes the log buffer and forces the log file once
+    * for all the requests that have arrived.
+    * Between requests, it writes each half of the
+    * log buffer as it fills up, without forcing it.
+    * The log can be appended to while it is written and forced.
+    */
+   public void run() {
+      try {
+         while (true) {
+            boolean force;
+            synchronized (this) {
+               writerIdle = true;
+               while (requestedLSN <= lastSavedLSN && pendingstart < 0 && !stopping)
+                  wait();
+               if (stopping)
+                  return;
+               writerIdle = false;
+               force = requestedLSN > lastSavedLSN;
+            }
+            if (!force)
+               writeLog(false);
+            else {
+               if (COMMIT_WINDOW_MICROS > 0)
+                  TimeUnit.MICROSECONDS.sleep(COMMIT_WINDOW_MICROS);
+               flush();
+               synchronized (this) {
+                  flushes++;
+               }
+            }
+         }
+      }
+      catch (InterruptedException e) {
+         // the writer is stopped by close, or when the JVM exits
+      }
+   }
+
+   /**
+    * Writes the whole log to disk and forces it,
+    * stops the log writer, and shuts down the scheduler
+    * if the log manager created it.
+    * The writer is asked to stop rather than interrupted,
+    * since interrupting a thread in the middle of a write
+    * would close the log file's channel.
+    * The log can still be appended to and flushed afterwards;
+    * the appending threads then write the log themselves.
+    */
+   public void close() {
+      Thread w = writer;
+      if (w != null) {
+         writer = null;
+         synchronized (this) {
+            stopping = true;
+            notifyAll();
+         }
+         boolean interrupted = false;
+         while (w.isAlive()) {
+            try {
+               w.join();
+            }
+            catch (InterruptedException e) {
+               interrupted = true;
+            }
+         }
+         if (interrupted)
+            Thread.currentThread().interrupt();
+      }
       flush();
-      return new LogIterator(fm, currentblk);
+      if (ownsPrefetcher)
+         prefetcher.shutdown();
+   }
+
+   /**
+    * Returns the number of times the log has been forced
+    * on behalf of waiting threads.
+    * @return the number of group flushes
+    */
+   public synchronized long flushes() {
+      return flushes;
+   }
+
+   /**
+    * Returns the number of flush requests that waited for
+    * the log writer; divided by {@link #flushes()}, it gives
+    * the average size of a group.
+    * @return the number of flush requests that waited
+    */
+   public synchronized long flushWaits() {
+      return flushWaits;
+   }
+
+   public Iterator<byte[]> iterator() {
+      synchronized (ioLock) {
+         flush();
+         return new LogIterator(fm, lastwrittenblk, prefetcher);
+      }
    }
 
    /**
@@ -70,38 +284,197 @@ public class LogMgr {
     * @param logrec a byte buffer containing the bytes.
     * @return the LSN of the final value
     */
-   public synchronized int append(byte[] logrec) {
-      int boundary = logpage.getInt(0);
-      int recsize = logrec.length;
-      int bytesneeded = recsize + Integer.BYTES;
-      if (boundary - bytesneeded < Integer.BYTES) { // the log record doesn't fit,
-         flush();        // so move to the next block.
-         currentblk = appendNewBlock();
-         boundary = logpage.getInt(0);
+   public int append(byte[] logrec) {
+      try (LogRecordWriter w = reserve(logrec.length)) {
+         w.setBytes(0, logrec);
+         return w.publish();
+      }
+   }
+
+   /**
+    * Reserves space in the log buffer for a record
+    * of the specified size, and returns the calling thread's
+    * writer, positioned at that space.
+    * The record gets the next LSN.
+    * If the record does not fit in the current log block,
+    * the next block of the log buffer is begun.
+    * @param reclen the size of the record
+    * @return the writer of the record
+    * @throws IllegalArgumentException if the record cannot fit in a log block
+    */
+   public LogRecordWriter reserve(int reclen) {
+      if (reclen < 0 || reclen > fm.blockSize() - 2*Integer.BYTES)
+         throw new IllegalArgumentException("log record of " + reclen + " bytes");
+      int bytesneeded = reclen + Integer.BYTES;
+      while (true) {
+         long r = reserved.get();
+         int lsn = lsnOf(r), boundary = boundaryOf(r);
+         int recpos = boundary - bytesneeded;
+         if (boundary < 0 || recpos < Integer.BYTES) // the log record doesn't fit,
+            moveToNewBlock(r);                       // so move to the next block.
+         else if (reserved.compareAndSet(r, pack(lsn+1, recpos))) {
+            // the block cannot change until this record is published
+            ByteBuffer buf = logbuf;
+            buf.putInt(recpos, reclen);
+            LogRecordWriter w = writers.get();
+            w.reset(buf, lsn+1, recpos + Integer.BYTES, boundary);
+            return w;
+         }
       }
-      int recpos = boundary - bytesneeded;
+   }
 
-      logpage.setBytes(recpos, logrec);
-      logpage.setInt(0, recpos); // the new boundary
-      latestLSN += 1;
-      return latestLSN;
+   /**
+    * Publishes a record once its predecessor has been published,
+    * so that the published records are always a prefix of the log.
+    * @param lsn the LSN of the record
+    * @param recpos the position of the record
+    * @param boundary the position of the previous record
+    */
+   void publish(int lsn, int recpos, int boundary) {
+      long prev = pack(lsn-1, boundary);
+      for (int spins=0; !published.compareAndSet(prev, pack(lsn, recpos)); spins++) {
+         if (spins < 100)
+            Thread.onSpinWait();
+         else
+            Thread.yield();
+      }
+   }
+
+   /**
+    * Completes the full log block and begins the next one,
+    * unless another thread has already done so.
+    * New reservations are refused while the
+    * records of the full block are being completed.
+    * If the full block is the last of its half, appending
+    * moves to the other half, once it has been written,
+    * and the full half is handed to the log writer.
+    * @param r the state in which the record did not fit
+    */
+   private void moveToNewBlock(long r) {
+      boolean swapped = false, interrupted = false;
+      synchronized (this) {
+         if (boundaryOf(r) < 0) {
+            while (boundaryOf(reserved.get()) < 0 && !interrupted)
+               interrupted = await();
+         }
+         else if (reserved.compareAndSet(r, pack(lsnOf(r), -1))) {
+            while (published.get() != r)
+               Thread.onSpinWait();
+            logbuf.putInt(0, boundaryOf(r));
+            if (cur+1 < halfsize)
+               cur++;
+            else {
+               while (pendingstart >= 0)
+                  interrupted |= await();
+               pendingstart = halfstart;
+               pendingfrom = written;
+               half = 1 - half;
+               halfstart += halfsize;
+               cur = 0;
+               written = 0;
+               swapped = true;
+            }
+            logbuf = bufs[half][cur];
+            published.set(pack(lsnOf(r), fm.blockSize()));
+            reserved.set(published.get());
+            notifyAll();
+         }
+      }
+      if (interrupted)
+         Thread.currentThread().interrupt();
+      if (swapped && writer == null)
+         writeLog(false);
    }
 
    /**
-    * Initialize the bytebuffer and append it to the log file.
+    * Writes the full half of the log buffer, if there is one,
+    * and optionally the current half, up to its published records.
+    * The current block is copied, so that its header holds
+    * the boundary of the published records while the records
+    * before them are still being appended.
+    * The blocks are written without holding the lock,
+    * and the log writes are serialized by their own lock.
+    * @param all whether to write the current half too
+    * @return the LSN of the last record written
     */
-   private BlockId appendNewBlock() {
-      BlockId blk = fm.append(logfile);     
-      logpage.setInt(0, fm.blockSize());
-      fm.write(blk, logpage);
-      return blk;
+   private int writeLog(boolean all) {
+      synchronized (ioLock) {
+         int pstart, pfrom, start, from, to, lsn;
+         Page[] full, current;
+         synchronized (this) {
+            pstart = pendingstart;
+            pfrom = pendingfrom;
+            full = pages[1-half];
+            start = halfstart;
+            from = written;
+            to = cur;
+            current = pages[half];
+            long p = published.get();
+            lsn = lsnOf(p);
+            if (all) {
+               tailbuf.put(0, logbuf, 0, fm.blockSize());
+               tailbuf.putInt(0, boundaryOf(p));
+            }
+         }
+         if (pstart >= 0)
+            fm.write(new BlockId(logfile, pstart + pfrom),
+                     Arrays.copyOfRange(full, pfrom, halfsize));
+         if (all) {
+            Page[] run = Arrays.copyOfRange(current, from, to+1);
+            run[run.length-1] = tailpage;
+            fm.write(new BlockId(logfile, start + from), run);
+            lastwrittenblk = new BlockId(logfile, start + to);
+         }
+         synchronized (this) {
+            if (pstart >= 0)
+               pendingstart = -1;
+            if (all && halfstart == start)
+               written = Math.max(written, to);
+            else if (all && pendingstart == start)
+               pendingfrom = Math.max(pendingfrom, to);
+            notifyAll();
+         }
+         return lsn;
+      }
    }
 
    /**
-    * Write the buffer to the log file.
+    * Writes the log buffer to the log file and force it to disk.
     */
    private void flush() {
-      fm.write(currentblk, logpage);
-      lastSavedLSN = latestLSN;
+      synchronized (ioLock) {
+         int lsn = writeLog(true);
+         fm.force(logfile);
+         synchronized (this) {
+            lastSavedLSN = Math.max(lastSavedLSN, lsn);
+            notifyAll();
+         }
+      }
+   }
+
+   /**
+    * Waits on the log manager's monitor, which the caller holds.
+    * @return true if the thread was interrupted
+    */
+   private boolean await() {
+      try {
+         wait();
+         return false;
+      }
+      catch (InterruptedException e) {
+         return true;
+      }
+   }
+
+   private static long pack(int lsn, int boundary) {
+      return ((long) lsn << 32) | (boundary & 0xffffffffL);
+   }
+
+   private static int lsnOf(long state) {
+      return (int) (state >>> 32);
+   }
+
+   private static int boundaryOf(long state) {
+      return (int) state;
    }
 }
@@ -0,0 +1,122 @@
+package org.example.simpledb.log;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import org.example.simpledb.file.Page;
+
+/**
+ * The space reserved in the log buffer for one log record,
+ * into which the record's values are written in place.
+ * The record's layout is the one a {@link Page} would give it:
+ * ints take four bytes, and a string is its length followed
+ * by its encoding in {@link Page#CHARSET}.
+ * <p>
+ * A writer is obtained from {@link LogMgr#reserve(int)},
+ * belongs to the calling thread, and is reused for the
+ * thread's next record, so that appending a record allocates
+ * nothing. Once the values are written, {@link #publish()}
+ * must be called, since the records after it cannot
+ * be written to disk until it is.
+ * A writer should be used in a try-with-resources statement:
+ * if the record is abandoned before it is published,
+ * {@link #close()} publishes it as padding, which
+ * the log iterator skips.
+ */
+public class LogRecordWriter implements AutoCloseable {
+   private LogMgr lm;
+   private ByteBuffer buf;
+   private CharsetEncoder encoder = Page.CHARSET.newEncoder()
+         .onMalformedInput(CodingErrorAction.REPLACE)
+         .onUnmappableCharacter(CodingErrorAction.REPLACE);
+   // the encoder's source, and its targets, one for each block of the log buffer
+   private CharBuffer chars = CharBuffer.allocate(64);
+   private Map<ByteBuffer,ByteBuffer> targets = new IdentityHashMap<>();
+   private int lsn, start, end;
+   private boolean published;
+
+   LogRecordWriter(LogMgr lm) {
+      this.lm = lm;
+   }
+
+   /**
+    * Prepares the writer for a record in the specified region.
+    * @param start the position of the record's first value
+    * @param end the position after the record
+    */
+   void reset(ByteBuffer buf, int lsn, int start, int end) {
+      this.buf = buf;
+      this.lsn = lsn;
+      this.start = start;
+      this.end = end;
+      published = false;
+   }
+
+   /**
+    * Writes an int at the specified offset of the record.
+    * @param offset the offset within the record
+    * @param val the value
+    */
+   public void setInt(int offset, int val) {
+      buf.putInt(start + offset, val);
+   }
+
+   /**
+    * Writes a string at the specified offset of the record,
+    * whose space must have been reserved with {@link Page#maxLength}.
+    * @param offset the offset within the record
+    * @param val the value
+    */
+   public void setString(int offset, String val) {
+      int len = val.length();
+      if (chars.capacity() < len)
+         chars = CharBuffer.allocate(Math.max(len, 2 * chars.capacity()));
+      val.getChars(0, len, chars.array(), 0);
+      chars.clear().limit(len);
+      int pos = start + offset + Integer.BYTES;
+      ByteBuffer dst = targets.computeIfAbsent(buf, ByteBuffer::duplicate);
+      dst.limit(end).position(pos);
+      encoder.reset();
+      CoderResult result = encoder.encode(chars, dst, true);
+      if (result.isOverflow() || encoder.flush(dst).isOverflow())
+         throw new IllegalArgumentException("string does not fit in the log record");
+      buf.putInt(start + offset, dst.position() - pos);
+   }
+
+   /**
+    * Writes the bytes at the specified offset of the record.
+    * @param offset the offset within the record
+    * @param b the bytes
+    */
+   public void setBytes(int offset, byte[] b) {
+      buf.put(start + offset, b);
+   }
+
+   /**
+    * Completes the record, which can then be written to disk.
+    * @return the LSN of the record
+    */
+   public int publish() {
+      lm.publish(lsn, start - Integer.BYTES, end);
+      published = true;
+      return lsn;
+   }
+
+   /**
+    * Publishes the record as padding if it was abandoned
+    * before it was published, so that the records after it
+    * are not held up.
+    * The padding keeps the record's space, and its length
+    * is stored as the complement of the record's length.
+    */
+   public void close() {
+      if (!published) {
+         buf.putInt(start - Integer.BYTES, ~(end - start));
+         publish();
+      }
+   }
+}
@@ -2,6 +2,7 @@ package org.example.simpledb.materialize;
 
 import java.util.*;
 
+import org.example.simpledb.buffer.BufferReservation;
 import org.example.simpledb.query.Scan;
 import org.example.simpledb.query.UpdateScan;
 import org.example.simpledb.record.Schema;
@@ -121,28 +122,42 @@ public class SortPlan implements Plan {
    }
    
    private TempTable mergeTwoRuns(TempTable p1, TempTable p2) {
-      Scan src1 = p1.open();
-      Scan src2 = p2.open();
+      Scan src1, src2;
       TempTable result = new TempTable(tx, sch);
-      UpdateScan dest = result.open();
-      
-      boolean hasmore1 = src1.next();
-      boolean hasmore2 = src2.next();
-      while (hasmore1 && hasmore2)
-         if (comp.compare(src1, src2) < 0)
-         hasmore1 = copy(src1, dest);
-      else
-         hasmore2 = copy(src2, dest);
-      
-      if (hasmore1)
-         while (hasmore1)
-         hasmore1 = copy(src1, dest);
-      else
-         while (hasmore2)
-         hasmore2 = copy(src2, dest);
-      src1.close();
-      src2.close();
-      dest.close();
+      UpdateScan dest;
+      // The merge needs a buffer for each run and one for the output.
+      // Each scan unpins its current block before it pins the next,
+      // so the merge holds three buffers at a time; they are reserved
+      // together, and the reservation is held until the scans are closed.
+      BufferReservation r = tx.reserve(3);
+      try {
+         src1 = p1.open();
+         src2 = p2.open();
+         dest = result.open();
+         
+         boolean hasmore1 = src1.next();
+         boolean hasmore2 = src2.next();
+         while (hasmore1 && hasmore2)
+            if (comp.compare(src1, src2) < 0)
+            hasmore1 = copy(src1, dest);
+         else
+            hasmore2 = copy(src2, dest);
+         
+         if (hasmore1)
+            while (hasmore1)
+            hasmore1 = copy(src1, dest);
+         else
+            while (hasmore2)
+            hasmore2 = copy(src2, dest);
+         src1.close();
+         src2.close();
+         dest.close();
+      }
+      finally {
+         r.release();
+      }
+      p1.delete();
+      p2.delete();
       return result;
    }
    
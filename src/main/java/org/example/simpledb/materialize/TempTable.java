@@ -33,9 +33,12 @@ public class TempTable {
    
    /**
     * Open a table scan for the temporary table.
+    * Temporary tables are written and read sequentially,
+    * so the scan is a bulk access that uses
+    * a ring of buffers of its own.
     */
    public UpdateScan open() {
-      return new TableScan(tx, tblname, layout);
+      return new TableScan(tx, tblname, layout, true);
    }
    
    public String tableName() {
@@ -50,6 +53,13 @@ public class TempTable {
       return layout;
    }
 
+   /**
+    * Delete the table's file. The table must not be open.
+    */
+   public void delete() {
+      tx.deleteTempFile(tblname + ".tbl");
+   }
+
    private static synchronized String nextTableName() {
       nextTableNum++;
       return "temp" + nextTableNum;
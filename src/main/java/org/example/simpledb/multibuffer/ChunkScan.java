@@ -2,6 +2,7 @@ package org.example.simpledb.multibuffer;
 
 import static java.sql.Types.INTEGER;
 import java.util.*;
+import org.example.simpledb.buffer.BufferReservation;
 import org.example.simpledb.file.BlockId;
 import org.example.simpledb.query.Constant;
 import org.example.simpledb.query.Scan;
@@ -25,6 +26,9 @@ public class ChunkScan implements Scan
 
    /**
     * Create a chunk consisting of the specified pages. 
+    * The chunk's buffers are reserved before its pages
+    * are pinned, so that the chunk is never left
+    * half-pinned by the pins of other transactions.
     * @param layout the metadata for the chunked table
     * @param startbnum the starting block number
     * @param endbnum  the ending block number
@@ -36,9 +40,17 @@ public class ChunkScan implements Scan
       this.layout = layout;
       this.startbnum = startbnum;
       this.endbnum   = endbnum;
-      for (int i=startbnum; i<=endbnum; i++) {
-         BlockId blk = new BlockId(filename, i);
-         buffs.add(new RecordPage(tx, blk, layout));
+      BufferReservation r = tx.reserve(endbnum - startbnum + 1);
+      try {
+         // the chunk is read into the reserved buffers, and held there for the pins
+         tx.readAhead(filename, startbnum, endbnum - startbnum + 1);
+         for (int i=startbnum; i<=endbnum; i++) {
+            BlockId blk = new BlockId(filename, i);
+            buffs.add(new RecordPage(tx, blk, layout));
+         }
+      }
+      finally {
+         r.release();
       }
       moveToBlock(startbnum);
    }
@@ -32,10 +32,14 @@ public class TablePlan implements Plan {
    
    /**
     * Creates a table scan for this query.
+    * A table larger than a quarter of the available buffers
+    * is scanned as a bulk access, through a ring of buffers,
+    * so that the scan does not push out the rest of the pool.
     * @see simpledb.plan.Plan#open()
     */
    public Scan open() {
-      return new TableScan(tx, tblname, layout);
+      boolean bulk = si.blocksAccessed() > tx.availableBuffs() / 4;
+      return new TableScan(tx, tblname, layout, bulk);
    }
    
    /**
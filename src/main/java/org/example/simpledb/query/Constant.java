@@ -1,5 +1,7 @@
 package org.example.simpledb.query;
 
+import org.example.simpledb.file.Page;
+
 /**
  * The class that denotes values stored in the database.
  * @author Edward Sciore
@@ -7,6 +9,7 @@ package org.example.simpledb.query;
 public class Constant implements Comparable<Constant> {
    private Integer ival = null;
    private String  sval = null;
+   private byte[]  bytes = null;
    
    public Constant(Integer ival) {
       this.ival = ival;
@@ -23,6 +26,23 @@ public class Constant implements Comparable<Constant> {
    public String asString() {
       return sval;
    }
+
+   /**
+    * Return the encoding of a string constant, as it is
+    * stored on a page. The encoding is computed once,
+    * so that a constant can be compared against many
+    * stored values without allocating.
+    * @return the encoded string
+    */
+   public byte[] asBytes() {
+      if (bytes == null)
+         bytes = sval.getBytes(Page.CHARSET);
+      return bytes;
+   }
+
+   public boolean isInt() {
+      return ival != null;
+   }
    
    public boolean equals(Object obj) {
       Constant c = (Constant) obj;
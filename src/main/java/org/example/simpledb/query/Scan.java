@@ -44,6 +44,19 @@ public interface Scan {
     */
    public Constant getVal(String fldname);
    
+   /**
+    * Return true if the specified field of the current record
+    * has the specified value.
+    * Scans that can compare a stored value in place
+    * override this method, so that no Constant is created.
+    * @param fldname the name of the field
+    * @param val the value to compare with
+    * @return true if the field's value equals the specified value
+    */
+   public default boolean valEquals(String fldname, Constant val) {
+      return val.equals(getVal(fldname));
+   }
+   
    /**
     * Return true if the scan has the specified field.
     * @param fldname the name of the field
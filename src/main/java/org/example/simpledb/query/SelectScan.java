@@ -50,6 +50,10 @@ public class SelectScan implements UpdateScan {
       return s.getVal(fldname);
    }
 
+   public boolean valEquals(String fldname, Constant val) {
+      return s.valEquals(fldname, val);
+   }
+
 	public boolean hasField(String fldname) {
 		return s.hasField(fldname);
 	}
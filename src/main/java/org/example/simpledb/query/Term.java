@@ -27,10 +27,16 @@ public class Term {
     * Return true if both of the term's expressions
     * evaluate to the same constant,
     * with respect to the specified scan.
+    * A term that compares a field with a constant
+    * asks the scan to compare the field's value in place.
     * @param s the scan
     * @return true if both expressions have the same value in the scan
     */
    public boolean isSatisfied(Scan s) {
+      if (lhs.isFieldName() && !rhs.isFieldName())
+         return s.valEquals(lhs.asFieldName(), rhs.asConstant());
+      if (rhs.isFieldName() && !lhs.isFieldName())
+         return s.valEquals(rhs.asFieldName(), lhs.asConstant());
       Constant lhsval = lhs.evaluate(s);
       Constant rhsval = rhs.evaluate(s);
       return rhsval.equals(lhsval);
@@ -2,6 +2,7 @@ package org.example.simpledb.record;
 
 import static java.sql.Types.INTEGER;
 
+import org.example.simpledb.buffer.BufferRing;
 import org.example.simpledb.file.BlockId;
 import org.example.simpledb.tx.Transaction;
 
@@ -16,10 +17,18 @@ public class RecordPage {
    private Layout layout;
 
    public RecordPage(Transaction tx, BlockId blk, Layout layout) {
+      this(tx, blk, layout, null);
+   }
+
+   /**
+    * Pins the block through the ring of a bulk access.
+    * @param ring the ring of the access, or null
+    */
+   public RecordPage(Transaction tx, BlockId blk, Layout layout, BufferRing ring) {
       this.tx = tx;
       this.blk = blk;
       this.layout = layout;
-      tx.pin(blk);
+      tx.pin(blk, ring);
    }
 
    /**
@@ -44,6 +53,18 @@ public class RecordPage {
       return tx.getString(blk, fldpos);
    }
 
+   /**
+    * Return true if the string stored in the specified field
+    * of the specified slot equals an encoded key.
+    * @param fldname the name of the field.
+    * @param key the encoded key
+    * @return true if the field holds the key
+    */
+   public boolean stringEquals(int slot, String fldname, byte[] key) {
+      int fldpos = offset(slot) + layout.offset(fldname);
+      return tx.stringEquals(blk, fldpos, key);
+   }
+
    /**
     * Store an integer at the specified field
     * of the specified slot.
@@ -1,6 +1,7 @@
 package org.example.simpledb.record;
 
 import static java.sql.Types.INTEGER;
+import org.example.simpledb.buffer.BufferRing;
 import org.example.simpledb.file.BlockId;
 import org.example.simpledb.query.Constant;
 import org.example.simpledb.query.UpdateScan;
@@ -13,15 +14,32 @@ import org.example.simpledb.tx.Transaction;
  */
 public class TableScan implements UpdateScan
 {
+   public static int READ_AHEAD = 8; // max blocks hinted at once by next()
    private Transaction tx;
    private Layout layout;
    private RecordPage rp;
    private String filename;
    private int currentslot;
+   private int readAheadEnd = 0;
+   private BufferRing ring;
 
    public TableScan(Transaction tx, String tblname, Layout layout) {
+      this(tx, tblname, layout, false);
+   }
+
+   /**
+    * Creates a scan that can be a bulk access.
+    * A bulk scan reads the blocks it does not find in
+    * the buffer pool into a small ring of buffers of its own
+    * (see {@link Transaction#newRing()}), so that a scan of
+    * a large table does not push out the blocks that other
+    * transactions are using.
+    * @param bulk whether the scan is a bulk access
+    */
+   public TableScan(Transaction tx, String tblname, Layout layout, boolean bulk) {
       this.tx = tx;
       this.layout = layout;
+      ring = bulk ? tx.newRing() : null;
       filename = tblname + ".tbl";
       if (tx.size(filename) == 0)
          moveToNewBlock();
@@ -32,6 +50,7 @@ public class TableScan implements UpdateScan
    // Methods that implement Scan
 
    public void beforeFirst() {
+      readAheadEnd = 0;
       moveToBlock(0);
    }
 
@@ -41,6 +60,7 @@ public class TableScan implements UpdateScan
          if (atLastBlock())
             return false;
          moveToBlock(rp.block().number()+1);
+         readAhead();
          currentslot = rp.nextAfter(currentslot);
       }
       return true;
@@ -61,6 +81,17 @@ public class TableScan implements UpdateScan
          return new Constant(getString(fldname));
    }
 
+   /**
+    * Compares the field in place, without creating
+    * a Constant or decoding a string.
+    */
+   public boolean valEquals(String fldname, Constant val) {
+      if (layout.schema().type(fldname) == INTEGER)
+         return val.isInt() && getInt(fldname) == val.asInt();
+      else
+         return !val.isInt() && rp.stringEquals(currentslot, fldname, val.asBytes());
+   }
+
    public boolean hasField(String fldname) {
       return layout.schema().hasField(fldname);
    }
@@ -105,7 +136,7 @@ public class TableScan implements UpdateScan
    public void moveToRid(RID rid) {
       close();
       BlockId blk = new BlockId(filename, rid.blockNumber());
-      rp = new RecordPage(tx, blk, layout);
+      rp = new RecordPage(tx, blk, layout, ring);
       currentslot = rid.slot();
    }
 
@@ -118,18 +149,43 @@ public class TableScan implements UpdateScan
    private void moveToBlock(int blknum) {
       close();
       BlockId blk = new BlockId(filename, blknum);
-      rp = new RecordPage(tx, blk, layout);
+      rp = new RecordPage(tx, blk, layout, ring);
       currentslot = -1;
    }
 
    private void moveToNewBlock() {
       close();
       BlockId blk = tx.append(filename);
-      rp = new RecordPage(tx, blk, layout);
+      rp = new RecordPage(tx, blk, layout, ring);
       rp.format();
       currentslot = -1;
    }
 
+   /**
+    * Since next() walks the file front to back, it hints
+    * the upcoming blocks to the transaction, so that they are
+    * read in the background while the current block is scanned.
+    * A new window is requested when the scan is halfway
+    * through the previous one.
+    * The window is kept to a quarter of the available buffers,
+    * so that concurrent scans (such as the two runs of a
+    * sort merge) do not replace each other's blocks.
+    * A bulk scan reads ahead into its ring, and the window
+    * is kept to half of the ring.
+    */
+   private void readAhead() {
+      int blknum = rp.block().number();
+      int limit = (ring == null) ? tx.availableBuffs() / 4 : ring.capacity() / 2;
+      int window = Math.min(READ_AHEAD, limit);
+      if (window < 1 || blknum + window/2 < readAheadEnd)
+         return;
+      int start = Math.max(blknum + 1, readAheadEnd);
+      int n = Math.min(window, tx.size(filename) - start);
+      if (n > 0)
+         tx.readAhead(filename, start, n, ring);
+      readAheadEnd = start + Math.max(n, 0);
+   }
+
    private boolean atLastBlock() {
       return rp.block().number() == tx.size(filename) - 1;
    }
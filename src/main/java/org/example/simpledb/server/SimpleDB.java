@@ -1,9 +1,18 @@
 package org.example.simpledb.server;
 
 import java.io.File;
+import java.util.Map;
+import org.example.simpledb.file.CompressedFileMgr;
 import org.example.simpledb.file.FileMgr;
+import org.example.simpledb.file.FileStats;
+import org.example.simpledb.file.IOStats;
+import org.example.simpledb.file.MappedFileMgr;
+import org.example.simpledb.file.PrefetchScheduler;
+import org.example.simpledb.file.StorageMode;
 import org.example.simpledb.log.LogMgr;
 import org.example.simpledb.buffer.BufferMgr;
+import org.example.simpledb.buffer.ReplacementStrategy;
+import org.example.simpledb.buffer.WarmUp;
 import org.example.simpledb.plan.BasicQueryPlanner;
 import org.example.simpledb.plan.BasicUpdatePlanner;
 import org.example.simpledb.plan.Planner;
@@ -22,12 +31,20 @@ public class SimpleDB {
    public static int BLOCK_SIZE = 400;
    public static int BUFFER_SIZE = 8;
    public static String LOG_FILE = "simpledb.log";
+   public static StorageMode STORAGE_MODE = StorageMode.CHANNEL;
+   public static int EXTENT_SIZE = 1; // blocks preallocated when a file grows
+   public static int IO_THREADS = 2;
+   public static ReplacementStrategy REPLACEMENT = ReplacementStrategy.LRU;
+   public static boolean WARM_RESTART = true;
+   public static String HUGE_PAGE_DIR = null; // a hugetlbfs mount for the buffer pool, such as /dev/hugepages
 
    private  FileMgr     fm;
    private  BufferMgr   bm;
    private  LogMgr      lm;
+   private PrefetchScheduler prefetcher;
    private  MetadataMgr mdm;
    private Planner planner;
+   private WarmUp warmup = null;
 
    /**
     * A constructor useful for debugging.
@@ -36,15 +53,52 @@ public class SimpleDB {
     * @param buffsize the number of buffers
     */
    public SimpleDB(String dirname, int blocksize, int buffsize) {
+      this(dirname, blocksize, buffsize, STORAGE_MODE);
+   }
+
+   /**
+    * A constructor that also chooses how the file manager
+    * stores blocks on disk.
+    * @param dirname the name of the database directory
+    * @param blocksize the block size
+    * @param buffsize the number of buffers
+    * @param mode the storage backend of the file manager
+    */
+   public SimpleDB(String dirname, int blocksize, int buffsize, StorageMode mode) {
+      this(dirname, blocksize, buffsize, mode, REPLACEMENT);
+   }
+
+   /**
+    * A constructor that also chooses how the buffer pool
+    * replaces buffers.
+    * @param dirname the name of the database directory
+    * @param blocksize the block size
+    * @param buffsize the number of buffers
+    * @param mode the storage backend of the file manager
+    * @param strategy the replacement policy of the buffer pool
+    */
+   public SimpleDB(String dirname, int blocksize, int buffsize, StorageMode mode,
+                   ReplacementStrategy strategy) {
       File dbDirectory = new File(dirname);
-      fm = new FileMgr(dbDirectory, blocksize);
-      lm = new LogMgr(fm, LOG_FILE);
-      bm = new BufferMgr(fm, lm, buffsize); 
+      if (mode == StorageMode.MAPPED)
+         fm = new MappedFileMgr(dbDirectory, blocksize, EXTENT_SIZE);
+      else if (mode == StorageMode.COMPRESSED)
+         fm = new CompressedFileMgr(dbDirectory, blocksize, EXTENT_SIZE);
+      else
+         fm = new FileMgr(dbDirectory, blocksize, EXTENT_SIZE);
+      fm.ioStats().register(dirname);
+      prefetcher = new PrefetchScheduler(fm, IO_THREADS);
+      lm = new LogMgr(fm, LOG_FILE, prefetcher);
+      bm = new BufferMgr(fm, lm, buffsize, prefetcher, strategy, HUGE_PAGE_DIR);
+      bm.register(dirname);
    }
    
    /**
     * A simpler constructor for most situations. Unlike the
     * 3-arg constructor, it also initializes the metadata tables.
+    * If {@link #WARM_RESTART} is set, the blocks that were buffered
+    * at the last checkpoint are read back in the background
+    * once the database is recovered (see {@link #warmUp()}).
     * @param dirname the name of the database directory
     */
    public SimpleDB(String dirname) {
@@ -54,8 +108,14 @@ public class SimpleDB {
       if (isnew)
          System.out.println("creating new database");
       else {
+         if (WARM_RESTART)
+            warmup = bm.prepareWarmUp();
          System.out.println("recovering existing database");
          tx.recover();
+         if (warmup != null && warmup.blocksPlanned() > 0)
+            System.out.println("warming up buffer pool: " + warmup.blocksPlanned() + " blocks");
+         if (warmup != null)
+            warmup.start();
       }
       mdm = new MetadataMgr(isnew, tx);
       QueryPlanner qp = new BasicQueryPlanner(mdm);
@@ -82,6 +142,30 @@ public class SimpleDB {
       return planner;
    }
 
+   /**
+    * Returns the warm-up of the buffer pool, from which
+    * its progress can be read.
+    * @return the warm-up, or null if warm restart is off
+    * or there was no saved list of blocks
+    */
+   public WarmUp warmUp() {
+      return warmup;
+   }
+
+   /**
+    * Shuts the database down cleanly: writes the dirty buffers,
+    * saves the list of buffered blocks for the next warm restart,
+    * stops the page cleaner, the log writer and the I/O threads,
+    * and closes the files.
+    */
+   public void shutdown() {
+      bm.flushAll();
+      bm.shutdown();
+      lm.close();
+      prefetcher.shutdown();
+      fm.close();
+   }
+
    // These methods aid in debugging
    public FileMgr fileMgr() {
       return fm;
@@ -92,8 +176,19 @@ public class SimpleDB {
    public BufferMgr bufferMgr() {
       return bm;
    }
+   /**
+    * Prints the I/O statistics of each class of file
+    * accumulated since the previous call, and then resets them.
+    * The cumulative statistics are also available
+    * through {@link FileMgr#ioStats()} and JMX.
+    * @param stage a label for the output
+    */
    public void printFileMgrStats(String stage) {
-      System.out.println("Stage=" + stage + "|readCount=" + fm.getReadCount() + "|writeCount=" + fm.getWriteCount());
-      fm.resetCounts();
+      IOStats stats = fm.ioStats();
+      System.out.println("Stage=" + stage + "|readCount=" + stats.getReads() + "|writeCount=" + stats.getWrites());
+      for (Map.Entry<String,FileStats> e : stats.getFileClasses().entrySet())
+         if (e.getValue().getReads() + e.getValue().getWrites() + e.getValue().getAppends() > 0)
+            System.out.println("Stage=" + stage + "|" + e.getKey() + "|" + e.getValue());
+      stats.reset();
    }
  }
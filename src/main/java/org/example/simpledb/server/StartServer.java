@@ -10,6 +10,7 @@ public class StartServer {
       // configure and initialize the database
       String dirname = (args.length == 0) ? "studentdb" : args[0];
       SimpleDB db = new SimpleDB(dirname);
+      Runtime.getRuntime().addShutdownHook(new Thread(db::shutdown));
       
       // create a registry specific for the server on the default port
       Registry reg = LocateRegistry.createRegistry(1099);
@@ -4,6 +4,8 @@ import java.util.*;
 import org.example.simpledb.file.BlockId;
 import org.example.simpledb.buffer.Buffer;
 import org.example.simpledb.buffer.BufferMgr;
+import org.example.simpledb.buffer.BufferReservation;
+import org.example.simpledb.buffer.BufferRing;
 
 /**
  * Manage the transaction's currently-pinned buffers. 
@@ -12,6 +14,7 @@ import org.example.simpledb.buffer.BufferMgr;
 class BufferList {
    private Map<BlockId, Buffer> buffers = new HashMap<>();
    private List<BlockId> pins = new ArrayList<>();
+   private Deque<BufferReservation> reservations = new ArrayDeque<>();
    private BufferMgr bm;
   
    public BufferList(BufferMgr bm) {
@@ -34,10 +37,62 @@ class BufferList {
     * @param blk a reference to the disk block
     */
    void pin(BlockId blk) {
-      Buffer buff = bm.pin(blk);
+      pin(blk, null);
+   }
+
+   /**
+    * Pin the block through the specified ring
+    * and keep track of the buffer internally.
+    * While the transaction holds a reservation with
+    * buffers left, the pin uses the most recent one instead.
+    * @param blk a reference to the disk block
+    * @param ring the ring of a bulk access, or null
+    */
+   void pin(BlockId blk, BufferRing ring) {
+      BufferReservation r = currentReservation();
+      Buffer buff = (r != null) ? bm.pin(blk, r) : bm.pin(blk, ring);
       buffers.put(blk, buff);
       pins.add(blk);
    }
+
+   /**
+    * Hint that the specified range of blocks will be pinned soon.
+    * While the transaction holds a reservation with
+    * buffers left, the blocks are read into its buffers.
+    * @param filename the name of the file
+    * @param blknum the first block of the range
+    * @param count the number of blocks in the range
+    */
+   void readAhead(String filename, int blknum, int count) {
+      BufferReservation r = currentReservation();
+      if (r != null)
+         bm.readAhead(filename, blknum, count, r);
+      else
+         bm.readAhead(filename, blknum, count);
+   }
+
+   /**
+    * Reserve the specified number of buffers for
+    * the transaction's next pins.
+    * @param n the number of buffers
+    * @param timeoutMillis the longest time to wait
+    * @return the reservation
+    */
+   BufferReservation reserve(int n, long timeoutMillis) {
+      BufferReservation r = bm.reserve(n, timeoutMillis);
+      reservations.push(r);
+      return r;
+   }
+
+   private BufferReservation currentReservation() {
+      while (!reservations.isEmpty()) {
+         BufferReservation r = reservations.peek();
+         if (r.remaining() > 0)
+            return r;
+         reservations.pop();
+      }
+      return null;
+   }
    
    /**
     * Unpin the specified block.
@@ -55,6 +110,9 @@ class BufferList {
     * Unpin any buffers still pinned by this transaction.
     */
    void unpinAll() {
+      for (BufferReservation r : reservations)
+         r.release();
+      reservations.clear();
       for (BlockId blk : pins) {
          Buffer buff = buffers.get(blk);
          bm.unpin(buff);
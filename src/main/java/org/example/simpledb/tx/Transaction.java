@@ -3,6 +3,8 @@ package org.example.simpledb.tx;
 import org.example.simpledb.log.LogMgr;
 import org.example.simpledb.buffer.Buffer;
 import org.example.simpledb.buffer.BufferMgr;
+import org.example.simpledb.buffer.BufferReservation;
+import org.example.simpledb.buffer.BufferRing;
 import org.example.simpledb.file.BlockId;
 import org.example.simpledb.file.FileMgr;
 import org.example.simpledb.file.Page;
@@ -95,6 +97,45 @@ public class Transaction {
       mybuffers.pin(blk);
    }
    
+   /**
+    * Pin the specified block for a bulk access,
+    * such as a scan of a large table.
+    * A block that is not buffered is read into one of the
+    * ring's buffers, so that the access does not replace
+    * the blocks that other transactions are using.
+    * @param blk a reference to the disk block
+    * @param ring the ring of the access, or null
+    * @see #newRing()
+    */
+   public void pin(BlockId blk, BufferRing ring) {
+      mybuffers.pin(blk, ring);
+   }
+
+   /**
+    * Reserve the specified number of buffers for the
+    * transaction's next pins, waiting for them in turn
+    * with other reservations for at most
+    * {@link BufferMgr#MAX_TIME} milliseconds.
+    * An operator that pins several blocks at once reserves
+    * them first, so that it does not run out of buffers halfway.
+    * The unused buffers go back to the pool when the
+    * reservation is released, or when the transaction ends.
+    * @param n the number of buffers
+    * @return the reservation
+    */
+   public BufferReservation reserve(int n) {
+      return mybuffers.reserve(n, BufferMgr.MAX_TIME);
+   }
+
+   /**
+    * Return a new ring of buffers for a bulk access,
+    * or null if the buffer pool is too small to spare one.
+    * @return a new ring, or null
+    */
+   public BufferRing newRing() {
+      return bm.newRing();
+   }
+
    /**
     * Unpin the specified block.
     * The transaction looks up the buffer pinned to this block,
@@ -105,6 +146,35 @@ public class Transaction {
       mybuffers.unpin(blk);
    }
    
+   /**
+    * Hint that the specified range of blocks will be needed soon.
+    * The buffer manager reads them into the buffer pool
+    * in the background, without pinning them.
+    * While the transaction holds a reservation, the blocks
+    * are read into its buffers instead, and kept there
+    * for the pins that follow.
+    * No locks are needed, since the blocks are only
+    * cached; they are locked when they are accessed.
+    * @param filename the name of the file
+    * @param blknum the first block of the range
+    * @param count the number of blocks in the range
+    */
+   public void readAhead(String filename, int blknum, int count) {
+      mybuffers.readAhead(filename, blknum, count);
+   }
+
+   /**
+    * Hint that the specified range of blocks will be needed soon
+    * by a bulk access; the blocks are read into the ring's buffers.
+    * @param filename the name of the file
+    * @param blknum the first block of the range
+    * @param count the number of blocks in the range
+    * @param ring the ring of the access, or null
+    */
+   public void readAhead(String filename, int blknum, int count, BufferRing ring) {
+      bm.readAhead(filename, blknum, count, ring);
+   }
+
    /**
     * Return the integer value stored at the
     * specified offset of the specified block.
@@ -134,6 +204,38 @@ public class Transaction {
       Buffer buff = mybuffers.getBuffer(blk);
       return buff.contents().getString(offset);
    }
+
+   /**
+    * Compare the string stored at the specified offset
+    * of the specified block with an encoded key,
+    * without decoding the string.
+    * The method first obtains an SLock on the block.
+    * @param blk a reference to a disk block
+    * @param offset the byte offset within the block
+    * @param key the encoded key
+    * @return the result of {@link Page#compareBytes}
+    */
+   public int compareString(BlockId blk, int offset, byte[] key) {
+      concurMgr.sLock(blk);
+      Buffer buff = mybuffers.getBuffer(blk);
+      return buff.contents().compareBytes(offset, key);
+   }
+
+   /**
+    * Return true if the string stored at the specified offset
+    * of the specified block equals an encoded key,
+    * without decoding the string.
+    * The method first obtains an SLock on the block.
+    * @param blk a reference to a disk block
+    * @param offset the byte offset within the block
+    * @param key the encoded key
+    * @return true if the stored string equals the key
+    */
+   public boolean stringEquals(BlockId blk, int offset, byte[] key) {
+      concurMgr.sLock(blk);
+      Buffer buff = mybuffers.getBuffer(blk);
+      return buff.contents().bytesEqual(offset, key);
+   }
    
    /**
     * Store an integer at the specified offset 
@@ -211,6 +313,18 @@ public class Transaction {
       return fm.append(filename);
    }
    
+   /**
+    * Deletes a temporary table's file once it is no longer needed.
+    * Its buffered blocks are discarded, and its file is closed and removed.
+    * Temporary tables are private to a transaction,
+    * and so no locks are needed.
+    * @param filename the name of the file
+    */
+   public void deleteTempFile(String filename) {
+      bm.discard(filename);
+      fm.delete(filename);
+   }
+
    public int blockSize() {
       return fm.blockSize();
    }
@@ -1,7 +1,7 @@
 package org.example.simpledb.tx.recovery;
 
-import org.example.simpledb.file.Page;
 import org.example.simpledb.log.LogMgr;
+import org.example.simpledb.log.LogRecordWriter;
 import org.example.simpledb.tx.Transaction;
 
 /**
@@ -41,9 +41,9 @@ public class CheckpointRecord implements LogRecord {
     * @return the LSN of the last log value
     */
    public static int writeToLog(LogMgr lm) {
-      byte[] rec = new byte[Integer.BYTES];
-      Page p = new Page(rec);
-      p.setInt(0, CHECKPOINT);
-      return lm.append(rec);
+      try (LogRecordWriter w = lm.reserve(Integer.BYTES)) {
+         w.setInt(0, CHECKPOINT);
+         return w.publish();
+      }
    }
 }
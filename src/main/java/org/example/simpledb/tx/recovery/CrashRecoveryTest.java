@@ -0,0 +1,112 @@
+package org.example.simpledb.tx.recovery;
+
+import java.io.File;
+import java.nio.file.Files;
+import org.example.simpledb.server.SimpleDB;
+import org.example.simpledb.file.BlockId;
+import org.example.simpledb.file.FileMgr;
+import org.example.simpledb.file.Page;
+import org.example.simpledb.tx.Transaction;
+
+/**
+ * Recovers from a crash in which an uncommitted transaction
+ * had appended blocks to a file that grows in extents,
+ * and its pages had been written when their buffers were replaced,
+ * but the file's length had not been saved since.
+ * The restarted database must read those blocks back
+ * (and not a stale page left in the buffer)
+ * in order to undo the transaction.
+ * The crash is simulated by a second JVM, which halts
+ * once the pages have been written.
+ */
+public class CrashRecoveryTest {
+   private static final String FILE = "crash.tbl";
+
+   public static void main(String[] args) throws Exception {
+      SimpleDB.EXTENT_SIZE = 8;
+      if (args.length == 2 && args[0].equals("crash")) {
+         crash(new File(args[1]));
+         Runtime.getRuntime().halt(0);
+      }
+      File dir = Files.createTempDirectory("crashtest").toFile();
+      try {
+         String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+         Process p = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+               CrashRecoveryTest.class.getName(), "crash", dir.getPath()).inheritIO().start();
+         if (p.waitFor() != 0)
+            throw new RuntimeException("the crashing process failed");
+         recover(dir);
+      }
+      finally {
+         for (File f : dir.listFiles())
+            f.delete();
+         dir.delete();
+      }
+   }
+
+   private static void crash(File dir) {
+      SimpleDB db = new SimpleDB(dir.getPath(), 400, 8);
+
+      Transaction tx1 = db.newTx();
+      BlockId blk0 = tx1.append(FILE);
+      tx1.pin(blk0);
+      tx1.setInt(blk0, 0, 111, true);
+      tx1.setString(blk0, 30, "committed", true);
+      tx1.setInt(blk0, 80, 999, true);
+      tx1.commit();
+
+      // the uncommitted transaction appends two blocks and modifies them
+      Transaction tx2 = db.newTx();
+      for (int i=1; i<=2; i++) {
+         BlockId blk = tx2.append(FILE);
+         tx2.pin(blk);
+         tx2.setInt(blk, 0, 222, true);
+         tx2.setString(blk, 30, "uncommitted", true);
+         tx2.unpin(blk);
+      }
+
+      // reading other blocks replaces, and so writes, the modified buffers
+      Transaction tx3 = db.newTx();
+      for (int i=0; i<16; i++) {
+         BlockId blk = tx3.append("filler.tbl");
+         tx3.pin(blk);
+         tx3.unpin(blk);
+      }
+      Page p = new Page(db.fileMgr().blockSize());
+      db.fileMgr().read(new BlockId(FILE, 2), p);
+      System.out.println("Before the crash: " + FILE + " has "
+            + db.fileMgr().length(FILE) + " blocks, block 2 on disk: " + p.getInt(0));
+      // crash: the database is abandoned without committing or shutting down
+   }
+
+   private static void recover(File dir) {
+      // a single buffer, so the undo reuses the frame that held block 0
+      SimpleDB db = new SimpleDB(dir.getPath(), 400, 1);
+      FileMgr fm = db.fileMgr();
+      // asking for the length opens the file, as a scan would
+      System.out.println("Before recovery: " + FILE + " has "
+            + fm.length(FILE) + " blocks");
+      Transaction tx = db.newTx();
+      BlockId blk0 = new BlockId(FILE, 0);
+      tx.pin(blk0);
+      tx.unpin(blk0);
+      tx.recover();
+
+      boolean ok = true;
+      for (int i=0; i<3; i++) {
+         Page p = new Page(fm.blockSize());
+         fm.read(new BlockId(FILE, i), p);
+         int expected = (i == 0) ? 111 : 0;
+         int expected80 = (i == 0) ? 999 : 0;
+         String expectedstr = (i == 0) ? "committed" : "";
+         System.out.println("block " + i + ": " + p.getInt(0) + " "
+               + p.getString(30) + " " + p.getInt(80));
+         if (p.getInt(0) != expected || p.getInt(80) != expected80
+               || !p.getString(30).equals(expectedstr))
+            ok = false;
+      }
+      System.out.println("After recovery: " + FILE + " has "
+            + fm.length(FILE) + " blocks, "
+            + (ok ? "recovered correctly" : "RECOVERY FAILED"));
+   }
+}
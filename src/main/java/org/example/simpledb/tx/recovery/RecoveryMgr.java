@@ -53,10 +53,12 @@ public class RecoveryMgr {
    /**
     * Recover uncompleted transactions from the log
     * and then write a quiescent checkpoint record to the log and flush it.
+    * Every dirty buffer in the buffer manager's dirty page table
+    * is written before the checkpoint record.
     */
    public void recover() {
       doRecover();
-      bm.flushAll(txnum);
+      bm.flushAll();
       int lsn = CheckpointRecord.writeToLog(lm);
       lm.flush(lsn);
    }
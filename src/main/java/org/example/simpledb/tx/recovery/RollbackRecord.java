@@ -2,6 +2,7 @@ package org.example.simpledb.tx.recovery;
 
 import org.example.simpledb.file.Page;
 import org.example.simpledb.log.LogMgr;
+import org.example.simpledb.log.LogRecordWriter;
 import org.example.simpledb.tx.Transaction;
 
 /**
@@ -45,10 +46,10 @@ public class RollbackRecord implements LogRecord {
     * @return the LSN of the last log value
     */
    public static int writeToLog(LogMgr lm, int txnum) {
-      byte[] rec = new byte[2*Integer.BYTES];
-      Page p = new Page(rec);
-      p.setInt(0, ROLLBACK);
-      p.setInt(Integer.BYTES, txnum);
-      return lm.append(rec);
+      try (LogRecordWriter w = lm.reserve(2*Integer.BYTES)) {
+         w.setInt(0, ROLLBACK);
+         w.setInt(Integer.BYTES, txnum);
+         return w.publish();
+      }
    }
 }
@@ -1,7 +1,9 @@
 package org.example.simpledb.tx.recovery;
 
 import org.example.simpledb.log.LogMgr;
+import org.example.simpledb.log.LogRecordWriter;
 import org.example.simpledb.file.BlockId;
+import org.example.simpledb.file.FileType;
 import org.example.simpledb.file.Page;
 import org.example.simpledb.tx.Transaction;
 
@@ -44,9 +46,14 @@ public class SetIntRecord implements LogRecord {
     * The method pins a buffer to the specified block,
     * calls setInt to restore the saved value,
     * and unpins the buffer.
+    * Temporary tables are skipped: they are not needed once
+    * their transaction ends, and their files may already
+    * have been deleted.
     * @see simpledb.tx.recovery.LogRecord#undo(int)
     */
    public void undo(Transaction tx) {
+      if (FileType.of(blk.fileName()) == FileType.TEMP)
+         return;
       tx.pin(blk);
       tx.setInt(blk, offset, val, false); // don't log the undo!
       tx.unpin(blk);
@@ -66,14 +73,14 @@ public class SetIntRecord implements LogRecord {
       int bpos = fpos + Page.maxLength(blk.fileName().length());
       int opos = bpos + Integer.BYTES;
       int vpos = opos + Integer.BYTES;
-      byte[] rec = new byte[vpos + Integer.BYTES];
-      Page p = new Page(rec);
-      p.setInt(0, SETINT);
-      p.setInt(tpos, txnum);
-      p.setString(fpos, blk.fileName());
-      p.setInt(bpos, blk.number());
-      p.setInt(opos, offset);
-      p.setInt(vpos, val);
-      return lm.append(rec);
+      try (LogRecordWriter w = lm.reserve(vpos + Integer.BYTES)) {
+         w.setInt(0, SETINT);
+         w.setInt(tpos, txnum);
+         w.setString(fpos, blk.fileName());
+         w.setInt(bpos, blk.number());
+         w.setInt(opos, offset);
+         w.setInt(vpos, val);
+         return w.publish();
+      }
    }
 }
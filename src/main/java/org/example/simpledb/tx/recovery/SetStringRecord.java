@@ -1,7 +1,9 @@
 package org.example.simpledb.tx.recovery;
 
 import org.example.simpledb.log.LogMgr;
+import org.example.simpledb.log.LogRecordWriter;
 import org.example.simpledb.file.BlockId;
+import org.example.simpledb.file.FileType;
 import org.example.simpledb.file.Page;
 import org.example.simpledb.tx.Transaction;
 
@@ -45,9 +47,14 @@ public class SetStringRecord implements LogRecord {
     * The method pins a buffer to the specified block,
     * calls setInt to restore the saved value,
     * and unpins the buffer.
+    * Temporary tables are skipped: they are not needed once
+    * their transaction ends, and their files may already
+    * have been deleted.
     * @see simpledb.tx.recovery.LogRecord#undo(int)
     */
    public void undo(Transaction tx) {
+      if (FileType.of(blk.fileName()) == FileType.TEMP)
+         return;
       tx.pin(blk);
       tx.setString(blk, offset, val, false); // don't log the undo!
       tx.unpin(blk);
@@ -68,14 +75,14 @@ public class SetStringRecord implements LogRecord {
       int opos = bpos + Integer.BYTES;
       int vpos = opos + Integer.BYTES;
       int reclen = vpos + Page.maxLength(val.length());
-      byte[] rec = new byte[reclen];
-      Page p = new Page(rec);
-      p.setInt(0, SETSTRING);
-      p.setInt(tpos, txnum);
-      p.setString(fpos, blk.fileName());
-      p.setInt(bpos, blk.number());
-      p.setInt(opos, offset);
-      p.setString(vpos, val);
-      return lm.append(rec);
+      try (LogRecordWriter w = lm.reserve(reclen)) {
+         w.setInt(0, SETSTRING);
+         w.setInt(tpos, txnum);
+         w.setString(fpos, blk.fileName());
+         w.setInt(bpos, blk.number());
+         w.setInt(opos, offset);
+         w.setString(vpos, val);
+         return w.publish();
+      }
    }
 }
\ No newline at end of file